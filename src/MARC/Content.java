@@ -15,15 +15,17 @@
  */
 package MARC;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
- * Content of a MARC 21 field.
+ * Content of a MARC 21 field. The content keeps the field's bytes as read 
+ * and only decodes them to a String when a String method is called. Sub fields 
+ * are stored with the US delimiter, {@link #SUB_FIELD_CHAR} is only used when
+ * content is displayed or supplied as a String by the user.
  * @author anisbet
  */
 public class Content 
@@ -43,7 +45,17 @@ public class Content
     public final static int GS                = 0x1d;
     public final static int RS                = 0x1e;
     public final static int US                = 0x1f;
+    // Decoded content with sub fields delimited by US, null until first needed.
     private String content;
+    // Bytes of the field as read from the MARC file. Only set while the 
+    // content remains unchanged, any edit discards it.
+    private ByteBuffer source;
+    // Encoded size of the content in bytes or -1 if not yet computed.
+    private int size;
+    // Subfield index into content, three ints per subfield: the code, and the
+    // start and end of its value. Null until first needed, see getSubfields().
+    private int[] subfields;
+    private int subfieldCount;
     
     /**
      * Creates an empty content array of size 256 bytes.
@@ -51,34 +63,46 @@ public class Content
     public Content()
     {
         this.content = new String();
+        this.source  = null;
+        this.size    = 0;
     }
     
     /**
-     * Creates a content object from the argument bytes.
+     * Creates a content object that reads its payload directly from a slice 
+     * of the record, say, from a memory mapped MARC file. The bytes are not 
+     * copied or decoded until the content is read as a String or changed.
+     * @param bytes the payload for this object without the field terminator.
+     */
+    public Content(ByteBuffer bytes)
+    {
+        this.content = null;
+        this.source  = bytes;
+        this.size    = bytes.remaining();
+    }
+    
+    /**
+     * Creates a content object from the argument bytes. The bytes are kept, 
+     * less any RS bytes, and are not decoded until needed.
      * @param bytes the payload for this object as an array of bytes.
      */
     public Content(byte[] bytes)
     {
         byte[] arr = new byte[bytes.length];
+        ByteBuffer in = ByteBuffer.wrap(bytes);
         int i = 0;
-        for (byte b: bytes)
-        {
-            if (b == RS) 
-            {
-                continue;
-            }
-            arr[i++] = b;
-        }
-        this.content = new String();
-        try
-        {
-            this.content = new String(arr, "UTF-8").replace((char)US, '$');
-        }
-        catch (UnsupportedEncodingException ex)
+        int from = 0;
+        int rs;
+        while ((rs = DelimiterScanner.indexOf(in, from, bytes.length, RS)) >= 0)
         {
-            Logger.getLogger(Content.class.getName()).log(Level.SEVERE, 
-                    "Unsupported conversion 'UTF-8'.", ex);
+            System.arraycopy(bytes, from, arr, i, rs - from);
+            i += rs - from;
+            from = rs + 1;
         }
+        System.arraycopy(bytes, from, arr, i, bytes.length - from);
+        i += bytes.length - from;
+        this.content = null;
+        this.source  = ByteBuffer.wrap(arr, 0, i).slice();
+        this.size    = i;
     }
     
     /**
@@ -110,7 +134,7 @@ public class Content
      */
     public char getFirstIndicator()
     {
-        return this.content.charAt(0);
+        return this.getContent().charAt(0);
     }
     
     /**
@@ -120,17 +144,86 @@ public class Content
      */
     public char getSecondIndicator()
     {
-        return this.content.charAt(1);
+        return this.getContent().charAt(1);
     }
     
     /**
      * Creates a Content object from the argument String.
      * Bytes are converted assuming they belong to the UTF-8 character set.
-     * @param string the payload for this object as a String.
+     * @param string the payload for this object as a String, with sub fields
+     * delimited by {@link #SUB_FIELD_CHAR}.
      */
     public Content(String string)
     {
-        this.content = string;
+        this.setContent(string.replace(SUB_FIELD_CHAR, (char)US));
+    }
+    
+    /**
+     * Decodes the source bytes the first time the content is needed as a String.
+     * @return the content as a String with sub fields delimited with US.
+     */
+    private String getContent()
+    {
+        if (this.content == null)
+        {
+            byte[] arr = new byte[this.source.remaining()];
+            this.source.duplicate().get(arr);
+            this.content = new String(arr, StandardCharsets.UTF_8);
+        }
+        return this.content;
+    }
+    
+    /**
+     * Replaces the content, discarding the original bytes and cached size.
+     * @param newContent new content with sub fields delimited with US.
+     */
+    private void setContent(String newContent)
+    {
+        this.content   = newContent;
+        this.source    = null;
+        this.size      = -1;
+        this.subfields = null;
+    }
+    
+    /**
+     * Finds the subfields the first time they are needed, with a single pass 
+     * over the content. An empty subfield, one with no code, has the code -1.
+     * @return the subfield index, see {@link #subfields}.
+     */
+    private int[] getSubfields()
+    {
+        if (this.subfields == null)
+        {
+            String data = this.getContent();
+            int[] index = new int[3 * 4];
+            int count = 0;
+            int delimiter = data.indexOf(US);
+            while (delimiter >= 0)
+            {
+                int next = data.indexOf(US, delimiter + 1);
+                int end  = next < 0 ? data.length() : next;
+                if (3 * (count + 1) > index.length)
+                {
+                    index = Arrays.copyOf(index, index.length * 2);
+                }
+                int entry = 3 * count++;
+                if (delimiter + 1 < end)
+                {
+                    index[entry]     = data.charAt(delimiter + 1);
+                    index[entry + 1] = delimiter + 2;
+                }
+                else
+                {
+                    index[entry]     = -1;
+                    index[entry + 1] = end;
+                }
+                index[entry + 2] = end;
+                delimiter = next;
+            }
+            this.subfields     = index;
+            this.subfieldCount = count;
+        }
+        return this.subfields;
     }
     
     /**
@@ -139,15 +232,11 @@ public class Content
      */
     public int getSize()
     {
-        try 
+        if (this.size < 0)
         {
-            return this.content.getBytes(StandardCharsets.UTF_8.name()).length;
-        } 
-        catch (UnsupportedEncodingException ex) 
-        {
-            Logger.getLogger(Content.class.getName()).log(Level.SEVERE, null, ex);
+            this.size = this.content.getBytes(StandardCharsets.UTF_8).length;
         }
-        return 0;
+        return this.size;
     }
     
     /**
@@ -158,7 +247,7 @@ public class Content
      */
     public int indexOf(int which)
     {
-        return this.content.indexOf(which);
+        return this.getContent().indexOf(which);
     }
     
     /**
@@ -167,20 +256,42 @@ public class Content
      */
     public byte[] getBytes()
     {
-        byte[] bytes = new byte[this.getSize()];
-        // remove any subfield delimiter.
-        String newString = this.content.replace(SUB_FIELD_CHAR, (char)Content.US);
-        try 
-        {
-            bytes = newString.getBytes("UTF-8");
-        } 
-        catch (UnsupportedEncodingException ex) 
+        if (this.source != null)
         {
-            Logger.getLogger(Content.class.getName()).log(Level.SEVERE, "** error, some chars could not be converted.\n", ex);
+            // Unchanged, so the original bytes are still good.
+            byte[] bytes = new byte[this.source.remaining()];
+            this.source.duplicate().get(bytes);
+            return bytes;
         }
+        byte[] bytes = this.content.getBytes(StandardCharsets.UTF_8);
+        this.size = bytes.length;
         return bytes;
     }
     
+    /**
+     * @return true if the content has been changed since it was read, or was
+     * created from a String, and false otherwise.
+     */
+    boolean isChanged()
+    {
+        return this.source == null;
+    }
+    
+    /**
+     * Writes the content's bytes at the buffer's position. Unchanged content 
+     * is copied straight from the original bytes.
+     * @param out destination buffer.
+     */
+    void write(ByteBuffer out)
+    {
+        if (this.source != null)
+        {
+            out.put(this.source.duplicate());
+            return;
+        }
+        out.put(this.getBytes());
+    }
+    
     /**
      * Creates an list of all the bytes in the content.
      * @return List of all bytes.
@@ -191,14 +302,7 @@ public class Content
         byte[] bArray = this.getBytes();
         for (byte b: bArray)
         {
-            if (b == SUB_FIELD_CHAR)
-            {
-                array.add((byte)US);
-            }
-            else
-            {
-                array.add(b);
-            }
+            array.add(b);
         }
         return array;
     }
@@ -225,28 +329,29 @@ public class Content
             }
             System.exit(1);
         }
+        String display = this.toString();
         if (iTag < START_INDICATOR)
         {
-            return this.content.replace((char)0x20, '\\');
+            return display.replace((char)0x20, '\\');
         }
         StringBuilder sb = new StringBuilder();
-        if (this.content.charAt(0) == 0x20) 
+        if (display.charAt(0) == 0x20) 
         {
             sb.append('\\');
         }
         else
         {
-            sb.append(this.content.charAt(0));
+            sb.append(display.charAt(0));
         }
-        if (this.content.charAt(1) == 0x20) 
+        if (display.charAt(1) == 0x20) 
         {
             sb.append('\\');
         }
         else
         {
-            sb.append(this.content.charAt(1));
+            sb.append(display.charAt(1));
         }
-        sb.append(this.content.substring(2));
+        sb.append(display.substring(2));
         // now append the substring of chars after the indicators
         return sb.toString();
     }
@@ -258,7 +363,47 @@ public class Content
     @Override
     public String toString()
     {
-        return this.content;
+        return this.getContent().replace((char)US, SUB_FIELD_CHAR);
+    }
+
+    /**
+     * Tests if the content has any bytes outside the ASCII range, ignoring
+     * the MARC delimiter characters.
+     * @return true if the content contains multilingual characters and false otherwise.
+     */
+    boolean containsMultilingualEncoding()
+    {
+        if (this.source != null)
+        {
+            return Content.containsMultilingualEncoding(this.source, 
+                    this.source.position(), this.source.limit());
+        }
+        for (byte b : this.getBytes())
+        {
+            if (isMultilingualByte(b))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Tests a range of bytes for multilingual characters without decoding them.
+     * @param bytes source bytes.
+     * @param start index of the first byte to test.
+     * @param end index one past the last byte to test.
+     * @return true if the range contains multilingual characters and false otherwise.
+     */
+    static boolean containsMultilingualEncoding(ByteBuffer bytes, int start, int end)
+    {
+        return DelimiterScanner.indexOfNonAscii(bytes, start, end) >= 0;
+    }
+    
+    private static boolean isMultilingualByte(byte b)
+    {
+        // from the specification: http://www.loc.gov/marc/specifications/specchargeneral.html
+        return b < 0 && b != GS && b != RS && b != US;
     }
 
     /**
@@ -268,7 +413,7 @@ public class Content
      */
     boolean contains(String match) 
     {
-        return this.content.contains(match);
+        return this.toString().contains(match);
     }
     
     /**
@@ -279,14 +424,18 @@ public class Content
      */
     boolean subfieldContains(String match, char c) 
     {
-        StringBuilder sb = new StringBuilder();
-        // Build up the regex.
-        sb.append("\\").append(Content.SUB_FIELD_CHAR).append(c);
-        String[] subFields = this.content.split(sb.toString());
-        if (subFields.length < 2) return false;
-        for (String sub: subFields)
+        int[] index = this.getSubfields();
+        for (int entry = 0; entry < 3 * this.subfieldCount; entry += 3)
         {
-            if (sub.contains(match)) return true;
+            if (index[entry] != c)
+            {
+                continue;
+            }
+            int found = this.content.indexOf(match, index[entry + 1]);
+            if (found >= 0 && found + match.length() <= index[entry + 2])
+            {
+                return true;
+            }
         }
         return false;
     }
@@ -299,25 +448,40 @@ public class Content
      */
     public boolean replaceSubField(String newSubfield, char subFieldValue)
     {
-        boolean result = false;
-        String[] subFields = content.split("\\$");
-        StringBuilder sb   = new StringBuilder();
-        sb.append(subFields[0]); // add the indicators.
-        for (int i = 1; i < subFields.length; i++)
+        int[] index = this.getSubfields();
+        int count   = this.subfieldCount;
+        String data = this.content;
+        int[] newIndex   = new int[index.length];
+        StringBuilder sb = new StringBuilder(data.length() + newSubfield.length());
+        boolean result   = false;
+        int copied       = 0;
+        for (int entry = 0; entry < 3 * count; entry += 3)
         {
-            sb.append("$");
-            // look through all the strings for a string that starts with 'u'.
-            if (subFields[i].charAt(0) == subFieldValue)
+            newIndex[entry] = index[entry];
+            if (index[entry] == subFieldValue)
             {
-                subFields[i] = subFieldValue + newSubfield;
+                // Copy everything up to and including the code, then the new value.
+                sb.append(data, copied, index[entry + 1]);
+                newIndex[entry + 1] = sb.length();
+                sb.append(newSubfield);
+                newIndex[entry + 2] = sb.length();
+                copied = index[entry + 2];
                 result = true;
             }
-            sb.append(subFields[i]);
+            else
+            {
+                int shift = sb.length() - copied;
+                newIndex[entry + 1] = index[entry + 1] + shift;
+                newIndex[entry + 2] = index[entry + 2] + shift;
+            }
         }
         // subfield found let's replace it.
         if (result)
         {
-            content = sb.toString();
+            sb.append(data, copied, data.length());
+            this.setContent(sb.toString());
+            this.subfields     = newIndex;
+            this.subfieldCount = count;
         }
         return result;
     }
@@ -330,13 +494,12 @@ public class Content
      */
     public String extractSubfield(char subfield)
     {
-        String[] subFields = content.split("\\$");
-        for (String subField: subFields)
+        int[] index = this.getSubfields();
+        for (int entry = 0; entry < 3 * this.subfieldCount; entry += 3)
         {
-            // look through all the strings for a string that starts with 'u'.
-            if (subField.charAt(0) == subfield)
+            if (index[entry] == subfield)
             {
-                return subField.substring(1);
+                return this.content.substring(index[entry + 1], index[entry + 2]);
             }
         }
         return "";
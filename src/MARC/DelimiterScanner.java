@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 Andrew Nisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MARC;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the MARC delimiters, GS, RS and US, and bytes outside of ASCII in a
+ * buffer. The buffer is read eight bytes at a time as a long and all eight
+ * bytes are tested at once with arithmetic on the long, so a scan costs about
+ * one read and a few operations per eight bytes rather than a read and a
+ * compare for every byte. The few bytes at the end of a range that don't fill
+ * a long are tested one at a time.
+ * @author Andrew Nisbet
+ */
+public final class DelimiterScanner
+{
+    private final static long ONES  = 0x0101010101010101L;
+    private final static long LOW7  = 0x7f7f7f7f7f7f7f7fL;
+    private final static long HIGH  = 0x8080808080808080L;
+    private final static long GS_8  = ONES * Record.GS;
+    private final static long RS_8  = ONES * Record.RS;
+    private final static long US_8  = ONES * Record.US;
+
+    private DelimiterScanner()
+    {
+    }
+
+    /**
+     * Finds the first occurrence of a byte.
+     * @param buffer bytes to search, the buffer's position and limit are ignored.
+     * @param from index of the first byte to test.
+     * @param to index one past the last byte to test.
+     * @param b byte to find, for example {@link Record#RS}.
+     * @return index of the first occurrence in the range, or -1 if there isn't one.
+     */
+    public static int indexOf(ByteBuffer buffer, int from, int to, int b)
+    {
+        long pattern = ONES * (b & 0xff);
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES)
+        {
+            long found = DelimiterScanner.zeroBytes(buffer.getLong(i) ^ pattern);
+            if (found != 0L)
+            {
+                return i + DelimiterScanner.firstByte(buffer, found);
+            }
+        }
+        for (; i < to; i++)
+        {
+            if (buffer.get(i) == (byte)b)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first delimiter of any kind, GS, RS or US, in a single pass.
+     * @param buffer bytes to search, the buffer's position and limit are ignored.
+     * @param from index of the first byte to test.
+     * @param to index one past the last byte to test.
+     * @return index of the first delimiter in the range, or -1 if there isn't one.
+     */
+    public static int indexOfDelimiter(ByteBuffer buffer, int from, int to)
+    {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES)
+        {
+            long word  = buffer.getLong(i);
+            long found = DelimiterScanner.zeroBytes(word ^ GS_8)
+                    | DelimiterScanner.zeroBytes(word ^ RS_8)
+                    | DelimiterScanner.zeroBytes(word ^ US_8);
+            if (found != 0L)
+            {
+                return i + DelimiterScanner.firstByte(buffer, found);
+            }
+        }
+        for (; i < to; i++)
+        {
+            byte b = buffer.get(i);
+            if (b == Record.GS || b == Record.RS || b == Record.US)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first byte outside of ASCII, which in a MARC 21 record is part
+     * of a multilingual character. None of the delimiters are outside of ASCII.
+     * @param buffer bytes to search, the buffer's position and limit are ignored.
+     * @param from index of the first byte to test.
+     * @param to index one past the last byte to test.
+     * @return index of the first byte with the high bit set, or -1 if there isn't one.
+     */
+    public static int indexOfNonAscii(ByteBuffer buffer, int from, int to)
+    {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES)
+        {
+            long found = buffer.getLong(i) & HIGH;
+            if (found != 0L)
+            {
+                return i + DelimiterScanner.firstByte(buffer, found);
+            }
+        }
+        for (; i < to; i++)
+        {
+            if (buffer.get(i) < 0)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Marks the zero bytes of a long. Unlike the shorter (x - 0x01..) & ~x
+     * form, no carry crosses from one byte to the next, so only the zero
+     * bytes are marked and the first mark is reliable in either byte order.
+     * @param x eight bytes.
+     * @return a long with the high bit of each byte that was zero set, and
+     * all other bits clear.
+     */
+    private static long zeroBytes(long x)
+    {
+        return ~(((x & LOW7) + LOW7) | x | LOW7);
+    }
+
+    /**
+     * Converts the marks made by a test of a long into the offset of the
+     * first marked byte in the buffer.
+     * @param buffer the buffer the long was read from, for its byte order.
+     * @param marks the high bit of each marked byte, at least one is set.
+     * @return offset of the first marked byte from the start of the long.
+     */
+    private static int firstByte(ByteBuffer buffer, long marks)
+    {
+        if (buffer.order() == ByteOrder.BIG_ENDIAN)
+        {
+            return Long.numberOfLeadingZeros(marks) >>> 3;
+        }
+        return Long.numberOfTrailingZeros(marks) >>> 3;
+    }
+}
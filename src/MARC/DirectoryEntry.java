@@ -15,6 +15,8 @@
  */
 package MARC;
 
+import java.nio.ByteBuffer;
+
 /*
  * Directory of tags in a record.
  * CHARACTER POSITIONS
@@ -47,10 +49,13 @@ public class DirectoryEntry implements Comparable
     public static final int LENGTH = 12;
     protected Tag tag;
     protected Content content;
+    // Index of the entry in the directory the field was read from, or -1 if 
+    // the field was added.
+    int position = -1;
 
     public DirectoryEntry(String name, String data) 
     {
-        this.tag = new Tag(name);
+        this.tag = Tag.valueOf(name);
         this.content = new Content(data);
     }
     
@@ -62,7 +67,41 @@ public class DirectoryEntry implements Comparable
      */
     public DirectoryEntry(String name, byte[] data) throws MARCError
     {
-        this.tag = new Tag(name);
+        this.tag = Tag.valueOf(name);
+        this.content = new Content(data);
+    }
+
+    /**
+     * Creates a new DirectoryEntry whose content is a slice of the record's bytes.
+     * @param name tag name of this entry.
+     * @param data the payload of the tag, which is not copied.
+     * @throws MARCError if the previous record was incorrectly terminated.
+     */
+    public DirectoryEntry(String name, ByteBuffer data) throws MARCError
+    {
+        this.tag = Tag.valueOf(name);
+        this.content = new Content(data);
+    }
+
+    /**
+     * Creates a new DirectoryEntry.
+     * @param tag the entry's tag.
+     * @param data the payload of the tag, using '$' as the subfield delimiter.
+     */
+    public DirectoryEntry(Tag tag, String data)
+    {
+        this.tag = tag;
+        this.content = new Content(data);
+    }
+    
+    /**
+     * Creates a new DirectoryEntry whose content is a slice of the record's bytes.
+     * @param tag the entry's tag.
+     * @param data the payload of the tag, which is not copied.
+     */
+    DirectoryEntry(Tag tag, ByteBuffer data)
+    {
+        this.tag = tag;
         this.content = new Content(data);
     }
 
@@ -84,19 +123,7 @@ public class DirectoryEntry implements Comparable
 
     public boolean containsMultilingualEncoding() 
     {
-//        for (byte b : this.content) {
-        for (byte b : this.content.getBytes()) {
-            // from the specification: http://www.loc.gov/marc/specifications/specchargeneral.html
-            //            if (b < 0xffffff7f)
-            if (b < 0) 
-            {
-                if (b != Content.GS && b != Content.RS && b != Content.US) 
-                {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return this.content.containsMultilingualEncoding();
     }
 
     /**
@@ -15,6 +15,8 @@
  */
 package MARC;
 
+import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -36,6 +38,38 @@ public class DirtyRecord extends MARC.Record
         this.dirtyBit = false;
     }
     
+    /** 
+     * Constructor.
+     * @param leader Leader object.
+     * @param recordBytes bytes of the record, less the leader.
+     */
+    public DirtyRecord(Leader leader, ByteBuffer recordBytes)
+    {
+        super(leader, recordBytes);
+        this.dirtyBit = false;
+    }
+    
+    /** 
+     * Constructor.
+     * @param recordBytes the complete record including the leader.
+     */
+    public DirtyRecord(ByteBuffer recordBytes)
+    {
+        super(recordBytes);
+        this.dirtyBit = false;
+    }
+    
+    /** 
+     * Constructor.
+     * @param recordBytes the complete record including the leader.
+     * @param projection tag numbers of the fields to decode, or null for all.
+     */
+    public DirtyRecord(ByteBuffer recordBytes, BitSet projection)
+    {
+        super(recordBytes, projection);
+        this.dirtyBit = false;
+    }
+    
     @Override
     public void setUTF8Flag()
     {
@@ -51,7 +85,7 @@ public class DirtyRecord extends MARC.Record
     }
     
     @Override
-    public boolean removeTags(String tag, String match)
+    public boolean removeTags(Tag tag, String match)
     {
         boolean result = super.removeTags(tag, match);
         this.dirtyBit = true;
@@ -59,7 +93,7 @@ public class DirtyRecord extends MARC.Record
     }
     
     @Override
-    public boolean removeTags(String tag)
+    public boolean removeTags(Tag tag)
     {
         boolean result = super.removeTags(tag);
         this.dirtyBit = true;
@@ -67,7 +101,7 @@ public class DirtyRecord extends MARC.Record
     }
     
     @Override
-    public boolean addTag(String tag, String tagContent)
+    public boolean addTag(Tag tag, String tagContent)
     {
         boolean result = super.addTag(tag, tagContent);
         this.dirtyBit = true;
@@ -82,7 +116,7 @@ public class DirtyRecord extends MARC.Record
     }
     
     @Override
-    public boolean setTagContent(String tag, List<byte[]> newContent)
+    public boolean setTagContent(Tag tag, List<byte[]> newContent)
     {
         boolean result = super.setTagContent(tag, newContent);
         this.dirtyBit = true;
@@ -99,10 +133,12 @@ public class DirtyRecord extends MARC.Record
     }
     
     /**
-     * Opposite of touch, clears the dirty bit.
+     * Opposite of touch, clears the dirty bit. Pending steps are finished
+     * first, so a change started earlier can't set the bit again afterwards.
      */
     public void unTouch()
     {
+        this.finishPending();
         this.dirtyBit = false;
     }
     
@@ -72,10 +72,13 @@ public class Leader
     //0 - Undefined
         
     public final static int LENGTH = 24;
+    // Largest record the five digit record length can describe.
+    public final static int MAX_RECORD_LENGTH = 99999;
     public final static String TAG = "LDR";
     //00-04	Logical record length
     private int logicalRecordLength;
     //12-16	Base address of data Length of Leader and Directory
+    private int baseAddress;
     private byte[] leader;
     
     public Leader(byte[] leaderBytes)
@@ -97,6 +100,15 @@ public class Leader
         }
         // 12-16	Base address of data Length of Leader and Directory
         stringVersion = Utility.getByteRange(this.leader, 12, 17);
+        try
+        {
+            this.baseAddress = Integer.parseInt(stringVersion);
+        }
+        catch (NumberFormatException e)
+        {
+            // The record can still be read by finding the end of the directory.
+            this.baseAddress = -1;
+        }
         // 20-23	Entry map
         // always the same 4500.
     }
@@ -106,28 +118,36 @@ public class Leader
         return this.logicalRecordLength;
     }
     
+    /**
+     * @return the base address of data, that is, the length of the leader and
+     * directory, or -1 if the leader's base address is not a number.
+     */
+    public int getBaseAddress()
+    {
+        return this.baseAddress;
+    }
+    
     /**
      * @param logicalRecordLength the logicalRecordLength in bytes.
      */
     public void setLogicalRecordLength(int logicalRecordLength)
     {
-        if (logicalRecordLength > 99999)
+        if (logicalRecordLength > MAX_RECORD_LENGTH)
         {
             throw new IllegalArgumentException("** error, logical record length too long: '"
             + logicalRecordLength + "'");
         }
         this.logicalRecordLength = logicalRecordLength;
-        String fString = String.format("%05d", this.logicalRecordLength);
-        String[] ss = fString.split("|");
-        int count = 0;
-        for (String s: ss)
-        {
-            if (s.isEmpty() == false)
-            {
-                this.leader[count] = (byte)s.charAt(0);
-                count++;
-            }
-        }
+        Utility.putDigits(this.leader, 0, this.logicalRecordLength, 5);
+    }
+    
+    /**
+     * @param baseAddress the length of the leader and directory in bytes.
+     */
+    public void setBaseAddress(int baseAddress)
+    {
+        this.baseAddress = baseAddress;
+        Utility.putDigits(this.leader, 12, this.baseAddress, 5);
     }
     
     /**
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Andrew.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MARC;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Counts of leader values from a scan of a MARC file, see 
+ * {@link MARCFile#scanLeaders(List)}. Records are counted by the values of 
+ * the leader positions that describe them, and by the tests they pass.
+ * @author Andrew Nisbet
+ */
+public class LeaderStatistics
+{
+    // Leader positions that are counted, named as in the MARC 21 specification.
+    private final static int[] POSITIONS = {5, 6, 7, 9, 17};
+    private final static String[] NAMES = {
+        "record status", 
+        "type of record", 
+        "bibliographic level", 
+        "character coding scheme", 
+        "encoding level"
+    };
+    private final long[][] counts;
+    private final List<RecordFilter> tests;
+    private final long[] testCounts;
+    private long total;
+    
+    /**
+     * Creates empty statistics.
+     * @param tests tests of the leader to count the passes of.
+     */
+    LeaderStatistics(List<RecordFilter> tests)
+    {
+        this.counts     = new long[POSITIONS.length][256];
+        this.tests      = tests;
+        this.testCounts = new long[tests.size()];
+        this.total      = 0L;
+    }
+    
+    /**
+     * Counts a record.
+     * @param leader the record's leader bytes.
+     */
+    void add(ByteBuffer leader)
+    {
+        this.total++;
+        for (int i = 0; i < POSITIONS.length; i++)
+        {
+            this.counts[i][leader.get(POSITIONS[i]) & 0xff]++;
+        }
+        for (int i = 0; i < this.tests.size(); i++)
+        {
+            if (this.tests.get(i).accept(leader))
+            {
+                this.testCounts[i]++;
+            }
+        }
+    }
+    
+    /**
+     * @return number of records scanned.
+     */
+    public long getTotal()
+    {
+        return this.total;
+    }
+    
+    /**
+     * Gets the number of records with a value at a leader position.
+     * @param position one of the counted positions, 5, 6, 7, 9 or 17.
+     * @param value the value.
+     * @return number of records.
+     * @throws IllegalArgumentException if the position isn't counted.
+     */
+    public long getCount(int position, char value)
+    {
+        for (int i = 0; i < POSITIONS.length; i++)
+        {
+            if (POSITIONS[i] == position)
+            {
+                return this.counts[i][(byte)value & 0xff];
+            }
+        }
+        throw new IllegalArgumentException(
+                String.format("** error, leader position %d isn't counted.", position));
+    }
+    
+    /**
+     * Gets the number of records that passed a test.
+     * @param test index of the test in the list the scan was given.
+     * @return number of records.
+     */
+    public long getTestCount(int test)
+    {
+        return this.testCounts[test];
+    }
+    
+    /**
+     * Prints the counts to standard out. Blank values are shown as '#', as 
+     * in the MARC 21 specification.
+     */
+    public void print()
+    {
+        for (int i = 0; i < POSITIONS.length; i++)
+        {
+            System.out.printf("leader/%02d %s:\n", POSITIONS[i], NAMES[i]);
+            for (int value = 0; value < 256; value++)
+            {
+                if (this.counts[i][value] > 0)
+                {
+                    char c = value == ' ' ? '#' : (char)value;
+                    System.out.printf("%10s %7d\n", c, this.counts[i][value]);
+                }
+            }
+        }
+        for (int i = 0; i < this.tests.size(); i++)
+        {
+            System.out.printf("%10s %7d\n", this.tests.get(i) + ":", this.testCounts[i]);
+        }
+        System.out.printf("%10s %7d\n", "total:", this.total);
+    }
+}
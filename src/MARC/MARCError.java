@@ -17,12 +17,74 @@ package MARC;
 
 /**
  * Exception thrown if there is an error in the MARC file encountered during parsing.
+ * Reports what was wrong, and where possible, which tag and directory entry 
+ * was at fault.
  * @author Andrew Nisbet
  */
 public class MARCError extends RuntimeException
 {
+    /**
+     * The kinds of problems found in MARC records.
+     */
+    public enum Reason
+    {
+        INVALID_TAG,
+        INVALID_DIRECTORY_ENTRY,
+        FIELD_OUT_OF_RANGE,
+        MISSING_FIELD_TERMINATOR,
+        INVALID_RECORD_LENGTH,
+        MISSING_RECORD_TERMINATOR,
+        TRUNCATED_RECORD
+    }
+    private final Reason reason;
+    private final String tag;
+    private final int entry;
+    
     MARCError(String msg)
     {
-        System.err.printf("** error in MARC file encountered: %s\n", msg);
+        this(Reason.INVALID_TAG, "", -1, msg);
+    }
+    
+    /**
+     * Creates an error about a directory entry of a record.
+     * @param reason what was wrong with the record.
+     * @param tag tag name from the directory entry, may be empty if not known.
+     * @param entry 0-based index of the directory entry or -1 if not known.
+     * @param msg description of the problem.
+     */
+    MARCError(Reason reason, String tag, int entry, String msg)
+    {
+        super(msg);
+        this.reason = reason;
+        this.tag    = tag;
+        this.entry  = entry;
+        if (! Record.isQuiet())
+        {
+            System.err.printf("** error in MARC file encountered: %s\n", msg);
+        }
+    }
+
+    /**
+     * @return the reason for the error.
+     */
+    public Reason getReason()
+    {
+        return this.reason;
+    }
+
+    /**
+     * @return the tag of the offending directory entry, or an empty string if not known.
+     */
+    public String getTag()
+    {
+        return this.tag;
+    }
+
+    /**
+     * @return the 0-based index of the offending directory entry or -1 if not known.
+     */
+    public int getEntry()
+    {
+        return this.entry;
     }
 }
@@ -9,9 +9,21 @@ import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  *
@@ -19,6 +31,11 @@ import java.util.List;
  */
 public class MARCFile 
 {
+    // Size of the region of the file mapped at once in memory mapped mode. 
+    // Records are at most 99999 bytes, so a window always holds many records.
+    private final static long MAP_WINDOW_SIZE = 64L * 1024L * 1024L;
+    // Bytes searched at a time for the next record after a malformed one.
+    private final static long RESYNC_WINDOW = 8L * 1024L * 1024L;
     private final MARCSplitter marcSplitter;
     private final boolean debug;
     private boolean isStrict;
@@ -29,6 +46,14 @@ public class MARCFile
         private boolean isStrict;
         private String file;
         private boolean outputModifiedOnly;
+        private boolean loadAll;
+        private boolean memoryMapped;
+        private BitSet projection;
+        private RecordFilter filter;
+        private int start;
+        private int limit = -1;
+        private String rejectFile;
+        private boolean quiet;
         
         /**
          * Creates builder with minimum constructor arguments.
@@ -76,6 +101,111 @@ public class MARCFile
             return this;
         }
 
+        /**
+         * Reads the entire MARC file into memory before any records are handed
+         * out. Only needed by scripts that need cross-record state, by default
+         * records are read, decoded and handed over one at a time.
+         * @param b true to load all records into memory and false to stream them.
+         * @return builder object.
+         */
+        public Builder setLoadAll(boolean b)
+        {
+            this.loadAll = b;
+            return this;
+        }
+
+        /**
+         * Reads the MARC file through a memory mapped channel. Records are 
+         * located by the length in their leader and their fields refer 
+         * directly to the mapped file, bytes are only copied if a field changes.
+         * @param b true to memory map the file and false to read it as a stream.
+         * @return builder object.
+         */
+        public Builder setMemoryMapped(boolean b)
+        {
+            this.memoryMapped = b;
+            return this;
+        }
+
+        /**
+         * Only decodes the fields with the argument tags into fields, the 
+         * others are kept as ranges of the record's bytes and written back 
+         * unchanged. Anything that needs the other fields, like printing the 
+         * whole record, decodes them when it's called.
+         * @param tags tag numbers of the fields to decode, or null for all fields.
+         * @return builder object.
+         */
+        public Builder setProjection(BitSet tags)
+        {
+            this.projection = tags;
+            return this;
+        }
+
+        /**
+         * Tests each record before it is decoded. The filter may only reject
+         * records the script would neither change nor select for output. If
+         * only modified records are output, rejected records are dropped by 
+         * the reader, otherwise they are handed on with none of their fields
+         * decoded, so they are written exactly as they were read.
+         * @param filter the test, or null to decode every record.
+         * @return builder object.
+         */
+        public Builder setFilter(RecordFilter filter)
+        {
+            this.filter = filter;
+            return this;
+        }
+
+        /**
+         * Starts reading at a record other than the first. The record is 
+         * found with the file's {@link RecordIndex}, which is built if needed.
+         * @param ordinal 0-based number of the first record to read.
+         * @return builder object.
+         */
+        public Builder setStart(int ordinal)
+        {
+            this.start = ordinal;
+            return this;
+        }
+
+        /**
+         * Stops reading after a number of records.
+         * @param count the most records to read, or -1 to read to the end of the file.
+         * @return builder object.
+         */
+        public Builder setLimit(int count)
+        {
+            this.limit = count;
+            return this;
+        }
+
+        /**
+         * Sets aside malformed records in a file rather than stopping. The 
+         * reader skips to the next record terminator followed by a plausible 
+         * leader, and writes the skipped bytes to the file and a line to its
+         * log, see {@link RejectFile}. Without a reject file malformed records
+         * are still skipped, but only reported.
+         * @param fileName name of the reject file, or null or empty for none.
+         * @return builder object.
+         */
+        public Builder setRejectFile(String fileName)
+        {
+            this.rejectFile = fileName;
+            return this;
+        }
+
+        /**
+         * Reads without reporting malformed records, for a pass over the file
+         * before it is read again in full, where they are reported.
+         * @param b true to say nothing about malformed records and false to report them.
+         * @return builder object.
+         */
+        public Builder setQuiet(boolean b)
+        {
+            this.quiet = b;
+            return this;
+        }
+
         /**
          * Builds the MARCFile.
          *
@@ -99,12 +229,24 @@ public class MARCFile
         this.marcSplitter.setDebug(builder.debug);
         this.marcSplitter.setOutputOnModifiedOnly(builder.outputModifiedOnly);
         this.marcSplitter.setStrict(builder.isStrict);
+        this.marcSplitter.setQuiet(builder.quiet);
+        this.marcSplitter.setMemoryMapped(builder.memoryMapped);
+        this.marcSplitter.setProjection(builder.projection);
+        this.marcSplitter.setFilter(builder.filter);
+        this.marcSplitter.setRange(builder.start, builder.limit);
+        this.marcSplitter.setRejectFile(builder.rejectFile);
         this.debug = builder.debug;
-        this.marcSplitter.parseMARC();
+        this.marcSplitter.checkFile();
+        if (builder.loadAll)
+        {
+            this.marcSplitter.parseMARC();
+        }
     }
     
     /**
-    * Gets the records from the MARC file.
+    * Gets the records from the MARC file. Unless the file was built with 
+    * {@link Builder#setLoadAll(boolean)} each iterator makes a single pass over
+    * the file, reading and decoding one record at a time.
     * @return marc records in as Iterable.
     */
     public Iterable<Record> getRecords() 
@@ -112,6 +254,193 @@ public class MARCFile
         return this.marcSplitter.getRecords();
     }
     
+    /**
+     * Gets the bytes of each record in the file, leader included, without 
+     * decoding them. Each iterator makes a single pass over the file. This lets
+     * one thread read the file while others decode the records with 
+     * {@link #decode(ByteBuffer)}.
+     * @return the records' bytes as an Iterable.
+     */
+    public Iterable<ByteBuffer> getRecordBytes()
+    {
+        return this.marcSplitter.getRecordBytes();
+    }
+    
+    /**
+     * Decodes the bytes of a record returned by {@link #getRecordBytes()}. 
+     * Safe to call from more than one thread.
+     * @param recordBytes bytes of the whole record including the leader.
+     * @return Record, or DirtyRecord if only modified records are output.
+     */
+    public Record decode(ByteBuffer recordBytes)
+    {
+        return this.marcSplitter.decode(recordBytes);
+    }
+    
+    /**
+     * Prints the number of records decoded, and how many of them contain
+     * multilingual characters. Iterating over {@link #getRecords()} prints 
+     * this once the last record is read.
+     */
+    public void printSummary()
+    {
+        this.marcSplitter.printSummary();
+    }
+    
+    /**
+     * Closes the reject file, if there is one, once reading is done.
+     */
+    public void close()
+    {
+        this.marcSplitter.closeRejectFile();
+    }
+    
+    /**
+     * Gets the index of the records in the file, building it if the file has
+     * no index or has changed since it was indexed.
+     * @return the index, or null if the file couldn't be indexed.
+     */
+    public RecordIndex getIndex()
+    {
+        return this.marcSplitter.getIndex();
+    }
+    
+    /**
+     * Reads a single record, found with the file's index.
+     * @param ordinal 0-based number of the record in the file.
+     * @return the record, or null if there is no such record.
+     */
+    public Record getRecord(int ordinal)
+    {
+        return this.marcSplitter.readRecord(ordinal);
+    }
+    
+    /**
+     * Reads the record with a control number, found with the file's index.
+     * @param controlNumber content of the record's 001, or the $a of one of its 035s.
+     * @return the record, or null if no record has the control number.
+     */
+    public Record getRecord(String controlNumber)
+    {
+        RecordIndex index = this.marcSplitter.getIndex();
+        return index == null ? null : this.marcSplitter.readRecord(index.find(controlNumber));
+    }
+    
+    /**
+     * Records that start in a range of bytes of the file, see 
+     * {@link MARCFile#readRange(long, long, boolean)}.
+     */
+    public static class Range
+    {
+        private final long start;
+        private final long end;
+        private final List<ByteBuffer> records;
+        private final List<RejectFile.Entry> rejects;
+        
+        Range(long start, long end, List<ByteBuffer> records, List<RejectFile.Entry> rejects)
+        {
+            this.start   = start;
+            this.end     = end;
+            this.records = records;
+            this.rejects = rejects;
+        }
+        
+        /**
+         * @return file position of the first record in the range.
+         */
+        public long getStart()
+        {
+            return this.start;
+        }
+        
+        /**
+         * @return file position just past the last record in the range, which
+         * is where the next record starts.
+         */
+        public long getEnd()
+        {
+            return this.end;
+        }
+        
+        /**
+         * @return bytes of each record in the range, in file order, less any
+         * rejected by the filter, see {@link Builder#setFilter(RecordFilter)}.
+         */
+        public List<ByteBuffer> getRecords()
+        {
+            return this.records;
+        }
+        
+        /**
+         * @return malformed records in the range, see {@link MARCFile#reject(Range)}.
+         */
+        List<RejectFile.Entry> getRejects()
+        {
+            return this.rejects;
+        }
+    }
+    
+    /**
+     * @return size of the MARC file in bytes.
+     * @throws IOException if the size can't be read.
+     */
+    public long getFileSize() throws IOException
+    {
+        return Files.size(Paths.get(this.marcSplitter.fileName));
+    }
+    
+    /**
+     * Reads the records that start in a range of bytes of the file. Unless
+     * the range starts at a record, the first record is found by searching for
+     * a record terminator followed by a plausible leader. The range is memory 
+     * mapped, and records are slices of the mapping. Ranges can be read on 
+     * different threads at the same time, and are decoded with 
+     * {@link #decode(ByteBuffer)}.
+     * 
+     * Consecutive ranges fit together when one range's end is the next 
+     * range's start. If they don't, the search found a false start and the
+     * next range should be read again from the end of the first.
+     * @param from file position to start at.
+     * @param to records that start at or after this position aren't read.
+     * @param isRecordStart true if a record starts at 'from', which is true 
+     * of the start of the file.
+     * @return the records.
+     * @throws IOException if the file can't be read.
+     */
+    public Range readRange(long from, long to, boolean isRecordStart) throws IOException
+    {
+        return this.marcSplitter.readRange(from, to, isRecordStart);
+    }
+    
+    /**
+     * Sets aside the malformed records found when a range was read, see 
+     * {@link Builder#setRejectFile(String)}. Ranges are read ahead and may be
+     * read again, so this is left to the caller, once for each range that is
+     * used, in file order.
+     * @param range a range returned by {@link #readRange(long, long, boolean)}.
+     */
+    public void reject(Range range)
+    {
+        for (RejectFile.Entry entry: range.getRejects())
+        {
+            this.marcSplitter.reject(entry);
+        }
+    }
+    
+    /**
+     * Counts the records in the file by the values in their leaders without 
+     * reading anything else. Only each leader is read, the next is found by 
+     * skipping ahead by the record length, so the scan runs at about the 
+     * speed the file can be read.
+     * @param tests tests of the leader, each is given the 24 bytes of the 
+     * leader only, so tests of fields always fail.
+     * @return the counts.
+     */
+    public LeaderStatistics scanLeaders(List<RecordFilter> tests)
+    {
+        return this.marcSplitter.scanLeaders(tests);
+    }
+    
     /**
     * Split the marc file. The splitter needs to take the stream find the leader,
     * the directory and data segments.
@@ -119,11 +448,25 @@ public class MARCFile
     */
     class MARCSplitter
     {
-        private final List<Record> marcRecords;
+        private List<Record> marcRecords;
         private boolean isOutputIfModifiedOnly = false;
         private boolean debug = false;
         private boolean isStrict = false;
+        private boolean isMemoryMapped = false;
+        private boolean isQuiet = false;
+        private BitSet projection = null;
+        private RecordFilter filter = null;
+        private int start = 0;
+        private int limit = -1;
+        private RecordIndex index = null;
+        private RejectFile rejectFile = null;
         private final String fileName;
+        private final AtomicInteger multilingualRecords;
+        private final AtomicInteger totalRecords;
+        private final AtomicInteger filteredRecords;
+        private final AtomicInteger rejectedRecords;
+        // Projection of records rejected by the filter, no fields at all.
+        private final BitSet noFields = new BitSet();
 
         /**
          * Create a record object that can tell if it has been modified.
@@ -132,14 +475,19 @@ public class MARCFile
          */
         MARCSplitter(String fileName)
         {
-            marcRecords = new ArrayList<>();
+            this.marcRecords = null;
             this.fileName = fileName;
+            this.multilingualRecords = new AtomicInteger();
+            this.totalRecords = new AtomicInteger();
+            this.filteredRecords = new AtomicInteger();
+            this.rejectedRecords = new AtomicInteger();
         }
 
         /**
-         * Standard setup for reading records.
+         * Checks that the MARC file exists and has content.
+         * @throws IllegalArgumentException if the file doesn't exist or is empty.
          */
-        public void parseMARC()
+        void checkFile()
         {
             File f = new File(this.fileName);
             if (! f.isFile() )
@@ -151,60 +499,432 @@ public class MARCFile
             {
                 throw new IllegalArgumentException(String.format("**Error: File '%s' has zero size.", this.fileName));
             }
+        }
 
+        /**
+         * Reads all the records in the file into memory. Only used if the 
+         * whole file is required at once, see {@link Builder#setLoadAll(boolean)}.
+         */
+        public void parseMARC()
+        {
+            this.marcRecords = new ArrayList<>();
+            Iterator<Record> it = new RecordIterator();
+            while (it.hasNext())
+            {
+                this.marcRecords.add(it.next());
+            }
+        }
+
+        /**
+         * Reads the requested number of bytes from the stream, reading more than 
+         * once if the stream returns fewer bytes than requested.
+         * @param stream input stream.
+         * @param array buffer to fill.
+         * @param offset where in the array to start.
+         * @param length number of bytes to read.
+         * @return true if the bytes were read and false if the end of the 
+         * file was reached first.
+         * @throws IOException if the stream could not be read.
+         */
+        private boolean readFully(DataInputStream stream, byte[] array, int offset, int length) 
+                throws IOException
+        {
+            int total = 0;
+            while (total < length)
+            {
+                int count = stream.read(array, offset + total, length - total);
+                if (count < 0) return false;
+                total += count;
+            }
+            return true;
+        }
+        
+        /**
+         * Makes a record, or a dirty record if only modified records are output.
+         * @param recordBytes bytes of the whole record including the leader.
+         * @return Record.
+         */
+        private Record makeRecord(ByteBuffer recordBytes)
+        {
+            BitSet fields = this.projection;
+            if (this.filter != null && ! this.isOutputIfModifiedOnly && ! this.filter.accept(recordBytes))
+            {
+                // Passed through, nothing in the script changes it.
+                this.filteredRecords.incrementAndGet();
+                fields = this.noFields;
+            }
+            if (isOutputIfModifiedOnly)
+            {
+                return new DirtyRecord(recordBytes, fields);
+            }
+            return new Record(recordBytes, fields);
+        }
+        
+        /**
+         * Tests if the reader should drop a record rather than hand it on.
+         * @param recordBytes bytes of the whole record including the leader.
+         * @return true if the record was rejected by the filter and only 
+         * modified records are output, and false otherwise.
+         */
+        private boolean isDropped(ByteBuffer recordBytes)
+        {
+            if (this.filter != null && this.isOutputIfModifiedOnly && ! this.filter.accept(recordBytes))
+            {
+                this.filteredRecords.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+        
+        /**
+         * Decodes a record and counts it for the summary.
+         * @param recordBytes bytes of the whole record including the leader.
+         * @return Record.
+         */
+        Record decode(ByteBuffer recordBytes)
+        {
+            Record record = this.makeRecord(recordBytes);
+            if (record.containsMultilingualCharacters())
+            {
+                this.multilingualRecords.incrementAndGet();
+            }
+            this.totalRecords.incrementAndGet();
+            return record;
+        }
+        
+        void printSummary()
+        {
+            String fString = String.format("%10s %7d\n%10s %7d",
+                    "multilingual records:", this.multilingualRecords.get(), 
+                    "total:", this.totalRecords.get());
+            System.out.println(fString);
+            if (this.filter != null)
+            {
+                System.out.println(String.format("%10s %7d", "filtered:", this.filteredRecords.get()));
+            }
+            if (this.rejectFile != null || this.rejectedRecords.get() > 0)
+            {
+                System.out.println(String.format("%10s %7d", "rejected:", this.rejectedRecords.get()));
+            }
+        }
+        
+        /**
+         * Closes the reject file if there is one.
+         */
+        void closeRejectFile()
+        {
+            if (this.rejectFile == null)
+            {
+                return;
+            }
+            try
+            {
+                this.rejectFile.close();
+            }
+            catch (IOException e)
+            {
+                Logger.getLogger(MARCFile.class.getName()).log(Level.SEVERE, 
+                        "** error, couldn't close the reject file.", e);
+            }
+        }
+        
+        /**
+         * Sets a malformed record aside, writing it to the reject file if there is one.
+         * @param entry the record's bytes, or the bytes skipped to reach the next record.
+         */
+        void reject(RejectFile.Entry entry)
+        {
+            this.rejectedRecords.incrementAndGet();
+            if (! this.isQuiet)
+            {
+                System.err.printf("** error, set aside %d bytes at byte %d: %s.\n", 
+                        entry.getLength(), entry.getOffset(), entry.getReason());
+            }
+            if (this.rejectFile == null)
+            {
+                return;
+            }
+            try
+            {
+                this.rejectFile.write(entry);
+            }
+            catch (IOException e)
+            {
+                Logger.getLogger(MARCFile.class.getName()).log(Level.SEVERE, 
+                        "** error, couldn't write to reject file.", e);
+            }
+        }
+        
+        /**
+         * Checks the structure of a record whose length and terminator are correct.
+         * @param recordBytes bytes of the whole record including the leader.
+         * @param offset file position of the record.
+         * @param ordinal 0-based number of the record or -1 if not known.
+         * @return null if the record can be read, and what's wrong with it otherwise.
+         */
+        private RejectFile.Entry check(ByteBuffer recordBytes, long offset, long ordinal)
+        {
             try
             {
-                try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
-                    int multilingualRecord = 0;
-                    while (true)
+                Record.checkStructure(recordBytes);
+                return null;
+            }
+            catch (MARCError e)
+            {
+                return new RejectFile.Entry(offset, ordinal, e.getReason(), recordBytes);
+            }
+        }
+        
+        /**
+         * Reads the record length from a leader and checks that the whole 
+         * record is there.
+         * @param buffer bytes holding the leader.
+         * @param offset position of the leader in the buffer.
+         * @param position file position of the leader, for messages.
+         * @param available bytes from the start of the leader to the end of the file.
+         * @return the record length.
+         * @throws MARCError if the length isn't a number, or is longer than 
+         * the rest of the file.
+         */
+        private int getRecordLength(ByteBuffer buffer, int offset, long position, long available) 
+                throws MARCError
+        {
+            if (available < Leader.LENGTH)
+            {
+                throw new MARCError(MARCError.Reason.TRUNCATED_RECORD, "", -1, String.format(
+                        "** error, truncated record at byte %d of file '%s'.", position, this.fileName));
+            }
+            int recordLength = Utility.getDigits(buffer, offset, 5);
+            if (recordLength < Leader.LENGTH)
+            {
+                throw new MARCError(MARCError.Reason.INVALID_RECORD_LENGTH, "", -1, String.format(
+                        "** error, invalid record length '%s' at byte %d.", 
+                        Utility.getByteRange(buffer, offset, offset + 5), position));
+            }
+            if (recordLength > available)
+            {
+                throw new MARCError(MARCError.Reason.TRUNCATED_RECORD, "", -1, String.format(
+                        "** error, truncated record at byte %d of file '%s'.", position, this.fileName));
+            }
+            return recordLength;
+        }
+        
+        /**
+         * Checks that a record ends with a record terminator, which would be 
+         * missing if the record length is wrong.
+         * @param buffer bytes holding the record.
+         * @param end index one past the last byte of the record.
+         * @param position file position of the record, for messages.
+         * @throws MARCError if the last byte isn't a record terminator.
+         */
+        private void checkTerminator(ByteBuffer buffer, int end, long position) throws MARCError
+        {
+            if (buffer.get(end - 1) != Record.GS)
+            {
+                throw new MARCError(MARCError.Reason.MISSING_RECORD_TERMINATOR, "", -1, String.format(
+                        "** error, record at byte %d doesn't end with a record terminator.", position));
+            }
+        }
+        
+        /**
+         * Finds the first record that starts after a record terminator in a 
+         * range of a buffer, which is where reading resumes after a malformed record.
+         * @param buffer bytes of the file.
+         * @param from index of the first byte that may be a record terminator.
+         * @param to index one past the last byte that may be a record terminator.
+         * @return index of the record's leader, or -1 if there isn't one.
+         */
+        private int findRecord(ByteBuffer buffer, int from, int to)
+        {
+            int gs = from - 1;
+            do
+            {
+                gs = DelimiterScanner.indexOf(buffer, gs + 1, to, Record.GS);
+            } while (gs >= 0 && ! this.isPlausibleLeader(buffer, gs + 1));
+            return gs < 0 ? -1 : gs + 1;
+        }
+        
+        /**
+         * Finds where reading resumes after a malformed record, searching the
+         * file a window at a time.
+         * @param channel the file.
+         * @param from file position of the malformed record.
+         * @return file position of the next record or the size of the file if there isn't one.
+         * @throws IOException if the file can't be read.
+         */
+        private long resync(FileChannel channel, long from) throws IOException
+        {
+            long size = channel.size();
+            long position = from;
+            while (position < size)
+            {
+                long mapEnd = Math.min(position + RESYNC_WINDOW + Leader.MAX_RECORD_LENGTH, size);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, 
+                        position, mapEnd - position);
+                int scanEnd = (int)Math.min(RESYNC_WINDOW, window.limit());
+                int next = this.findRecord(window, 0, scanEnd);
+                if (next >= 0)
+                {
+                    return position + next;
+                }
+                position += scanEnd;
+            }
+            return size;
+        }
+        
+        /**
+         * Reads the records that start in a range of the file.
+         * @param from file position to start at.
+         * @param to records that start at or after this position aren't read.
+         * @param isRecordStart true if a record starts at 'from'.
+         * @return the records.
+         * @throws IOException if the file can't be read.
+         */
+        Range readRange(long from, long to, boolean isRecordStart) throws IOException
+        {
+            List<ByteBuffer> records = new ArrayList<>();
+            List<RejectFile.Entry> rejects = new ArrayList<>();
+            try (FileChannel channel = FileChannel.open(Paths.get(this.fileName), StandardOpenOption.READ))
+            {
+                long size = channel.size();
+                // Map the byte before the range, to check for a record terminator,
+                // and enough after it for the last record to finish.
+                long mapStart = Math.max(from - 1, 0L);
+                long mapEnd = Math.min(to + Leader.MAX_RECORD_LENGTH, size);
+                if (from >= size || mapEnd <= mapStart)
+                {
+                    return new Range(from, from, records, rejects);
+                }
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+                int limit = window.limit();
+                int offset = (int)(from - mapStart);
+                if (! isRecordStart && from > 0L)
+                {
+                    int scanEnd = (int)Math.min(to - mapStart, limit);
+                    int next = this.findRecord(window, offset - 1, scanEnd - 1);
+                    offset = next < 0 ? Math.max(offset, scanEnd) : next;
+                }
+                long start = mapStart + offset;
+                while (mapStart + offset < to && offset < limit)
+                {
+                    long position = mapStart + offset;
+                    int recordLength;
+                    try
                     {
-                        Record record = readMARCRecord(in);
-                        if (record == null)
-                        {
-                            break;
-                        }
-                        if (record.containsMultilingualCharacters())
-                        {
-                            multilingualRecord++;
-                        }
-                        marcRecords.add(record);
+                        // The mapping ends at the end of the file or past the 
+                        // end of any record that starts in the range.
+                        recordLength = this.getRecordLength(window, offset, position, limit - offset);
+                        this.checkTerminator(window, offset + recordLength, position);
+                    }
+                    catch (MARCError e)
+                    {
+                        int next = this.findRecord(window, offset, limit);
+                        next = next < 0 ? limit : next;
+                        rejects.add(new RejectFile.Entry(position, -1L, e.getReason(), 
+                                Record.slice(window, offset, next)));
+                        offset = next;
+                        continue;
+                    }
+                    ByteBuffer recordBytes = Record.slice(window, offset, offset + recordLength);
+                    offset += recordLength;
+                    RejectFile.Entry reject = this.check(recordBytes, position, -1L);
+                    if (reject != null)
+                    {
+                        rejects.add(reject);
+                    }
+                    else if (! this.isDropped(recordBytes))
+                    {
+                        records.add(recordBytes);
                     }
-                    String fString = String.format("%10s %7d\n%10s %7d",
-                            "multilingual records:", multilingualRecord, "total:", this.marcRecords.size());
-                    System.out.println(fString);
                 }
+                return new Range(start, mapStart + offset, records, rejects);
             }
-            catch (UnsupportedEncodingException e)
-            {
-               System.out.println(e.getMessage());
-            } 
-            catch (IOException e)
+        }
+        
+        /**
+         * Tests if a record could start at a position, by checking that the
+         * leader's lengths and base address are numbers, that it has the 
+         * indicator count and subfield code length of MARC 21, and that its 
+         * length leads to a record terminator.
+         * @param buffer bytes of the file.
+         * @param offset position of the possible leader.
+         * @return true if the leader is plausible and false otherwise.
+         */
+        private boolean isPlausibleLeader(ByteBuffer buffer, int offset)
+        {
+            if (offset + Leader.LENGTH > buffer.limit())
             {
-               System.out.println(e.getMessage());
+                return false;
             }
+            int recordLength = Utility.getDigits(buffer, offset, 5);
+            return recordLength > Leader.LENGTH 
+                    && buffer.get(offset + 10) == '2'
+                    && buffer.get(offset + 11) == '2'
+                    && Utility.getDigits(buffer, offset + 12, 5) >= 0
+                    && offset + recordLength <= buffer.limit()
+                    && buffer.get(offset + recordLength - 1) == Record.GS;
         }
-
-        private Record readMARCRecord(DataInputStream stream) throws IOException   
+        
+        /**
+         * Reads the leaders of the records by positioning the channel at the
+         * start of each record in turn.
+         * @param tests tests of the leader to count.
+         * @return the counts.
+         */
+        LeaderStatistics scanLeaders(List<RecordFilter> tests)
         {
-            byte[] leaderArray = new byte[Leader.LENGTH];
-            // read All bytes of File stream
-            if (stream.read(leaderArray, 0, Leader.LENGTH) <= 0) return null;
-            Leader leader = new Leader(leaderArray);
-            // create a buffer big enough for the rest of the record. We have already
-            // read in the leader (24 bytes) so exclude that.
-            byte[] remainderOfRecord = new byte[leader.getRecordLength() -Leader.LENGTH];
-            if (stream.read(remainderOfRecord, 0, remainderOfRecord.length) <= 0) return null;
-            Record record;
-            Record.setStrict(isStrict);
-            if (isOutputIfModifiedOnly)
+            LeaderStatistics statistics = new LeaderStatistics(tests);
+            ByteBuffer leader = ByteBuffer.allocate(Leader.LENGTH);
+            try (FileChannel channel = FileChannel.open(Paths.get(this.fileName), StandardOpenOption.READ))
             {
-                record = new DirtyRecord(leader, remainderOfRecord);
+                long size = channel.size();
+                long position = 0L;
+                while (position + Leader.LENGTH <= size)
+                {
+                    leader.clear();
+                    while (leader.hasRemaining() 
+                            && channel.read(leader, position + leader.position()) > 0)
+                    {
+                        // Keep reading until the leader is complete.
+                    }
+                    int recordLength = Utility.getDigits(leader, 0, 5);
+                    if (recordLength < Leader.LENGTH)
+                    {
+                        System.err.printf("** error, invalid record length '%s' at byte %d, "
+                                + "scan stopped.\n", Utility.getByteRange(leader, 0, 5), position);
+                        return statistics;
+                    }
+                    if (position + recordLength > size)
+                    {
+                        System.err.printf("** error, truncated record at end of file '%s'.\n", 
+                                this.fileName);
+                        return statistics;
+                    }
+                    statistics.add(leader);
+                    position += recordLength;
+                }
             }
-            else
+            catch (IOException e)
             {
-                record = new Record(leader, remainderOfRecord);
+                System.out.println(e.getMessage());
             }
-            return record;    
+            return statistics;
+        }
+        
+        /**
+         * Gets the undecoded records from the MARC file.
+         * @return bytes of each record as an Iterable.
+         */
+        Iterable<ByteBuffer> getRecordBytes()
+        {
+            return new Iterable<ByteBuffer>()
+            {
+                @Override
+                public Iterator<ByteBuffer> iterator()
+                {
+                    return new FrameIterator();
+                }
+            };
         }
 
         /**
@@ -213,12 +933,30 @@ public class MARCFile
          */
         Iterable<Record> getRecords() 
         {
-            return marcRecords;
+            if (this.marcRecords != null)
+            {
+                return this.marcRecords;
+            }
+            return new Iterable<Record>()
+            {
+                @Override
+                public Iterator<Record> iterator()
+                {
+                    return new RecordIterator();
+                }
+            };
         }
 
         private void setStrict(boolean b) 
         {
             this.isStrict = b;
+            Record.setStrict(b);
+        }
+
+        private void setQuiet(boolean b) 
+        {
+            this.isQuiet = b;
+            Record.setQuiet(b);
         }
 
         private void setOutputOnModifiedOnly(boolean b) 
@@ -230,5 +968,395 @@ public class MARCFile
         {
             this.debug = b;
         }
+
+        private void setMemoryMapped(boolean b) 
+        {
+            this.isMemoryMapped = b;
+        }
+
+        private void setProjection(BitSet tags) 
+        {
+            this.projection = tags;
+        }
+
+        private void setFilter(RecordFilter filter) 
+        {
+            this.filter = filter;
+        }
+
+        private void setRange(int start, int limit) 
+        {
+            this.start = start;
+            this.limit = limit;
+        }
+
+        private void setRejectFile(String fileName) 
+        {
+            if (fileName == null || fileName.isEmpty())
+            {
+                return;
+            }
+            try
+            {
+                this.rejectFile = new RejectFile(fileName);
+            }
+            catch (IOException e)
+            {
+                throw new IllegalArgumentException(String.format(
+                        "** error, couldn't create reject file '%s'.", fileName), e);
+            }
+        }
+        
+        /**
+         * Opens the file's index the first time it's needed.
+         * @return the index, or null if the file couldn't be indexed.
+         */
+        synchronized RecordIndex getIndex()
+        {
+            if (this.index == null)
+            {
+                try
+                {
+                    this.index = RecordIndex.open(this.fileName);
+                }
+                catch (IOException e)
+                {
+                    Logger.getLogger(MARCFile.class.getName()).log(Level.SEVERE, 
+                            String.format("** error, couldn't index '%s'.", this.fileName), e);
+                }
+            }
+            return this.index;
+        }
+        
+        /**
+         * Reads and decodes a single record found with the index.
+         * @param ordinal 0-based number of the record in the file.
+         * @return the record, or null if there is no such record.
+         */
+        Record readRecord(int ordinal)
+        {
+            RecordIndex recordIndex = this.getIndex();
+            if (recordIndex == null || ordinal < 0 || ordinal >= recordIndex.size())
+            {
+                return null;
+            }
+            ByteBuffer recordBytes = ByteBuffer.allocate(recordIndex.getLength(ordinal));
+            try (FileChannel channel = FileChannel.open(Paths.get(this.fileName), StandardOpenOption.READ))
+            {
+                RecordIndex.readFully(channel, recordBytes, recordIndex.getOffset(ordinal));
+            }
+            catch (IOException e)
+            {
+                Logger.getLogger(MARCFile.class.getName()).log(Level.SEVERE, null, e);
+                return null;
+            }
+            recordBytes.flip();
+            return this.makeRecord(recordBytes);
+        }
+        
+        /**
+         * Decodes records from the MARC file on demand, so only one record 
+         * is held in memory at a time. The totals are printed once the last 
+         * record has been read.
+         */
+        class RecordIterator implements Iterator<Record>
+        {
+            private final FrameIterator frames;
+            private boolean isOpen;
+            
+            RecordIterator()
+            {
+                multilingualRecords.set(0);
+                totalRecords.set(0);
+                filteredRecords.set(0);
+                rejectedRecords.set(0);
+                this.frames = new FrameIterator();
+                this.isOpen = true;
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                if (this.frames.hasNext())
+                {
+                    return true;
+                }
+                if (this.isOpen)
+                {
+                    this.isOpen = false;
+                    printSummary();
+                }
+                return false;
+            }
+
+            @Override
+            public Record next()
+            {
+                if (! this.hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return decode(this.frames.next());
+            }
+        }
+        
+        /**
+         * Reads the bytes of each record from the MARC file on demand. The 
+         * file is opened when the iterator is created and closed once the last
+         * record has been read.
+         */
+        class FrameIterator implements Iterator<ByteBuffer>
+        {
+            private DataInputStream in;
+            private FileChannel channel;
+            // Current memory mapped region of the file and where it starts.
+            private MappedByteBuffer window;
+            private long windowStart;
+            private long position;
+            private long fileSize;
+            private boolean isOpen;
+            private ByteBuffer nextRecord;
+            // Records left to read, or -1 to read to the end of the file.
+            private int remaining;
+            // 0-based number of the next record, for the reject log.
+            private long ordinal;
+            
+            FrameIterator()
+            {
+                this.isOpen = true;
+                this.remaining = limit;
+                this.ordinal = start;
+                try
+                {
+                    long startPosition = 0L;
+                    if (start > 0)
+                    {
+                        RecordIndex recordIndex = getIndex();
+                        if (recordIndex == null)
+                        {
+                            throw new IOException(String.format(
+                                    "** error, can't start at record %d without an index.", start));
+                        }
+                        if (start >= recordIndex.size())
+                        {
+                            // Past the last record.
+                            this.remaining = 0;
+                        }
+                        else
+                        {
+                            startPosition = recordIndex.getOffset(start);
+                        }
+                    }
+                    if (isMemoryMapped)
+                    {
+                        this.channel  = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+                        this.window   = null;
+                    }
+                    else
+                    {
+                        // Unbuffered, so the stream follows the channel's position.
+                        FileInputStream file = new FileInputStream(fileName);
+                        this.channel  = file.getChannel();
+                        this.channel.position(startPosition);
+                        this.in = new DataInputStream(file);
+                    }
+                    this.fileSize = this.channel.size();
+                    this.position = startPosition;
+                }
+                catch (IOException e)
+                {
+                    System.out.println(e.getMessage());
+                    this.isOpen = false;
+                }
+                this.nextRecord = null;
+            }
+            
+            /**
+             * Reads the next record from the file, closing the file once the
+             * end of the file is reached. Malformed records are set aside and
+             * reading resumes at the next record.
+             * @return next record's bytes or null if there are no more records.
+             */
+            private ByteBuffer readNext()
+            {
+                if (! this.isOpen)
+                {
+                    return null;
+                }
+                if (this.remaining == 0)
+                {
+                    this.close();
+                    return null;
+                }
+                try
+                {
+                    while (this.position < this.fileSize)
+                    {
+                        long offset = this.position;
+                        ByteBuffer record;
+                        try
+                        {
+                            record = this.readRecord();
+                        }
+                        catch (MARCError e)
+                        {
+                            long next = resync(this.channel, offset);
+                            // Bytes without a record length aren't a record, so don't take a number.
+                            long number = e.getReason() == MARCError.Reason.INVALID_RECORD_LENGTH 
+                                    ? -1L : this.ordinal++;
+                            reject(new RejectFile.Entry(offset, number, e.getReason(),
+                                    this.channel.map(FileChannel.MapMode.READ_ONLY, offset, next - offset)));
+                            this.seek(next);
+                            continue;
+                        }
+                        RejectFile.Entry entry = check(record, offset, this.ordinal++);
+                        if (entry != null)
+                        {
+                            reject(entry);
+                            continue;
+                        }
+                        if (this.remaining > 0)
+                        {
+                            this.remaining--;
+                        }
+                        return record;
+                    }
+                }
+                catch (IOException e)
+                {
+                   System.out.println(e.getMessage());
+                }
+                this.close();
+                return null;
+            }
+            
+            /**
+             * Reads the record at the current position by the length in its 
+             * leader and moves past it. If the file is memory mapped the record 
+             * is a slice of the mapped file.
+             * @return the record.
+             * @throws IOException if the file could not be read.
+             * @throws MARCError if the record length is wrong, checked by the 
+             * record terminator.
+             */
+            private ByteBuffer readRecord() throws IOException, MARCError
+            {
+                long available = this.fileSize - this.position;
+                ByteBuffer record;
+                if (isMemoryMapped)
+                {
+                    int offset = this.map(this.position, (int)Math.min(Leader.LENGTH, available));
+                    int recordLength = getRecordLength(this.window, offset, this.position, available);
+                    offset = this.map(this.position, recordLength);
+                    record = Record.slice(this.window, offset, offset + recordLength);
+                }
+                else
+                {
+                    // Keep the leader in the record's buffer so the record can
+                    // be passed through if unchanged.
+                    byte[] array = new byte[Leader.LENGTH];
+                    if (available >= Leader.LENGTH && ! readFully(this.in, array, 0, Leader.LENGTH))
+                    {
+                        throw new IOException("** error, unexpected end of file.");
+                    }
+                    int recordLength = getRecordLength(ByteBuffer.wrap(array), 0, this.position, available);
+                    array = Arrays.copyOf(array, recordLength);
+                    if (! readFully(this.in, array, Leader.LENGTH, recordLength - Leader.LENGTH))
+                    {
+                        throw new IOException("** error, unexpected end of file.");
+                    }
+                    record = ByteBuffer.wrap(array);
+                }
+                checkTerminator(record, record.limit(), this.position);
+                this.position += record.limit();
+                return record;
+            }
+            
+            /**
+             * Moves to a position in the file.
+             * @param next file position of the next record.
+             * @throws IOException if the position can't be set.
+             */
+            private void seek(long next) throws IOException
+            {
+                this.position = next;
+                if (! isMemoryMapped)
+                {
+                    this.channel.position(next);
+                }
+            }
+            
+            /**
+             * Makes sure the mapped window covers the requested range of the file.
+             * @param start file position of the first byte required.
+             * @param length number of bytes required.
+             * @return offset of start within the current window.
+             * @throws IOException if the file could not be mapped.
+             */
+            private int map(long start, int length) throws IOException
+            {
+                if (this.window == null 
+                        || start < this.windowStart 
+                        || start + length > this.windowStart + this.window.limit())
+                {
+                    long size = Math.min(Math.max(MAP_WINDOW_SIZE, length), this.fileSize - start);
+                    this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                    this.windowStart = start;
+                }
+                return (int)(start - this.windowStart);
+            }
+            
+            private void close()
+            {
+                try
+                {
+                    if (this.in != null)
+                    {
+                        this.in.close();
+                    }
+                    else if (this.channel != null)
+                    {
+                        // Mapped regions stay valid after the channel closes.
+                        this.channel.close();
+                    }
+                }
+                catch (IOException e)
+                {
+                   System.out.println(e.getMessage());
+                }
+                this.isOpen = false;
+                this.window = null;
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                while (this.nextRecord == null)
+                {
+                    ByteBuffer record = this.readNext();
+                    if (record == null)
+                    {
+                        return false;
+                    }
+                    if (! isDropped(record))
+                    {
+                        this.nextRecord = record;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public ByteBuffer next()
+            {
+                if (! this.hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                ByteBuffer record = this.nextRecord;
+                this.nextRecord = null;
+                return record;
+            }
+        }
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Andrew.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MARC;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Selects records with a value at a position of the leader or of a field, 
+ * tested on the record's bytes. The field is found by walking the directory, 
+ * so nothing is decoded. Positions count bytes, which is the same as counting
+ * characters in the ASCII fixed-length fields like the leader and 008. A
+ * record with the field more than once is selected if any of them matches.
+ * @author Andrew Nisbet
+ */
+public class PositionFilter implements RecordFilter
+{
+    // Tag name of the field to test, or null to test the leader.
+    private final byte[] name;
+    private final int position;
+    private final byte[] value;
+    private final String label;
+    
+    /**
+     * Creates a filter.
+     * @param tag the field to test, or null to test the leader.
+     * @param position 0-based position of the first byte to test.
+     * @param value value expected at the position.
+     */
+    public PositionFilter(Tag tag, int position, String value)
+    {
+        this.name     = tag == null ? null : tag.toString().getBytes(StandardCharsets.US_ASCII);
+        this.position = position;
+        this.value    = value.getBytes(StandardCharsets.UTF_8);
+        this.label    = String.format("%s/%02d == %s", 
+                tag == null ? "leader" : tag.toString(), position, value);
+    }
+    
+    @Override
+    public boolean accept(ByteBuffer recordBytes)
+    {
+        if (this.name == null)
+        {
+            return this.matches(recordBytes, this.position, Leader.LENGTH);
+        }
+        int limit = recordBytes.limit();
+        // Find the directory terminator first, the base address of data may be stale.
+        int terminator = Leader.LENGTH - 1;
+        do
+        {
+            terminator = DelimiterScanner.indexOf(recordBytes, terminator + 1, limit, Record.RS);
+            if (terminator < 0)
+            {
+                return false;
+            }
+        } while ((terminator - Leader.LENGTH) % DirectoryEntry.LENGTH != 0);
+        for (int entry = Leader.LENGTH; entry < terminator; entry += DirectoryEntry.LENGTH)
+        {
+            if (recordBytes.get(entry) == this.name[0] 
+                    && recordBytes.get(entry + 1) == this.name[1] 
+                    && recordBytes.get(entry + 2) == this.name[2])
+            {
+                // Any of the fields with the tag may match.
+                int length = Utility.getDigits(recordBytes, entry + 3, 4);
+                int start  = Utility.getDigits(recordBytes, entry + 7, 5);
+                if (length < 1 || start < 0)
+                {
+                    continue;
+                }
+                start += terminator + 1;
+                if (this.matches(recordBytes, start + this.position, 
+                        Math.min(start + length - 1, limit)))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Compares the value with the bytes at an index.
+     * @param recordBytes the record.
+     * @param index where the value should be.
+     * @param end index one past the last byte the value may occupy.
+     * @return true if the bytes match the value and false otherwise.
+     */
+    private boolean matches(ByteBuffer recordBytes, int index, int end)
+    {
+        if (index < 0 || index + this.value.length > end)
+        {
+            return false;
+        }
+        for (int i = 0; i < this.value.length; i++)
+        {
+            if (recordBytes.get(index + i) != this.value[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return this.label;
+    }
+}
@@ -3,10 +3,13 @@ package MARC;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -53,42 +56,21 @@ public class Record
     }
     
     /**
-     * Returns a list of index integers where record separators are found.
-     * @param recordArray the entire record as an array of bytes.
-     * @return List of integers representing each character of the record.
+     * Stops warnings and errors about malformed records being printed, for 
+     * a pass over a file whose problems are reported when it is read again.
+     * @param quiet true to say nothing and false to report problems.
      */
-    private static List<Integer> splitOnRS(byte[] recordArray)
+    public static void setQuiet(boolean quiet)
     {
-        List<Integer> splits = new ArrayList<>();
-        int counter = 0;
-        for (byte b: recordArray)
-        {
-            if (b == Record.RS) 
-            {
-                splits.add(counter);
-            }
-            counter++;
-        }
-        return splits;
+        isQuiet = quiet;
     }
-
+    
     /**
-     * Returns the tags of the MARC record.
-     * @param endPosition position of the end of a directory entry, on a 12 byte boundary.
-     * @param recordArray The complete array of bytes in a record.
-     * @return List of tags in the MARC file.
+     * @return true if problems with records aren't reported, see {@link #setQuiet(boolean)}.
      */
-    private static List<String> getTags(int endPosition, byte[] recordArray)
+    static boolean isQuiet()
     {
-        // traverse the recordArray until the endPostion, splitting every 12 bytes.
-        List<String> tags = new ArrayList<>();
-        for (int i = 0; i < endPosition; i += DirectoryEntry.LENGTH)
-        {
-            // read the first 3 bytes as the name of the tag.
-            String tag = Utility.getByteRange(recordArray, i, i + 3);
-            tags.add(tag);
-        }
-        return tags;
+        return isQuiet;
     }
     
     private final Leader leader;
@@ -98,7 +80,33 @@ public class Record
     // Ingnore tags are not checked for UTF8 compliance.
     private final List<Tag> ignoreTags;
     private final List<DirectoryEntry> directoryEntries;
+    // The record exactly as read, including the leader, or null if not known.
+    private ByteBuffer original;
+    // Set when fields are added, removed, replaced or dropped while reading.
+    private boolean isModified;
+    // Built on first lookup: which tags are present, and the fields for each 
+    // tag in record order. Kept up to date by addTag and removeTags.
+    private BitSet tagPresence;
+    private List<List<DirectoryEntry>> tagIndex;
+    // Tags whose fields are made into DirectoryEntry objects when the record 
+    // is read, or null for all tags.
+    private BitSet projection;
+    // The record less the leader, where fields outside the projection are read from.
+    private final ByteBuffer recordBytes;
+    // Fields outside the projection in directory order, RAW_FIELD_SIZE ints 
+    // each: entry number, tag number, start and end of the field's data.
+    private int[] rawFields;
+    private int rawCount;
+    private final static int RAW_FIELD_SIZE = 4;
     private static boolean isRelaxedChecking = false;
+    private static boolean isQuiet = false;
+    // Steps that finish work started on other threads, like checking the 
+    // record's links, in the order they were added. Null if there are none.
+    private List<Runnable> pending;
+    // Records can't be longer than the leader can describe, so one buffer 
+    // per thread is enough to serialize any record.
+    private static final ThreadLocal<ByteBuffer> writeBuffer = 
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(Leader.MAX_RECORD_LENGTH));
     
     /**
      * Creates a record from the argument bytes.
@@ -106,50 +114,348 @@ public class Record
      * @param recordArray bytes read from the MARC file.
      */
     public Record(Leader leader, byte[] recordArray)
+    {
+        this(leader, ByteBuffer.wrap(recordArray));
+    }
+    
+    /**
+     * Creates a record from the complete bytes of a record, as read from a 
+     * MARC file. The bytes are kept, so if the record is never changed it is 
+     * written by copying the original bytes rather than re-encoding it.
+     * @param recordBytes the record including the leader. Position 0 must be
+     * the first byte of the leader.
+     */
+    public Record(ByteBuffer recordBytes)
+    {
+        this(recordBytes, null);
+    }
+    
+    /**
+     * Creates a record from the complete bytes of a record, only making fields
+     * for the projected tags. The other fields are kept as ranges of the 
+     * record's bytes and copied as they are if the record is written. Looking 
+     * up a tag outside the projection, or anything else that needs every 
+     * field, makes the remaining fields first.
+     * @param recordBytes the record including the leader. Position 0 must be
+     * the first byte of the leader.
+     * @param projection tag numbers of the fields to make, or null for all.
+     */
+    public Record(ByteBuffer recordBytes, BitSet projection)
+    {
+        this(Record.readLeader(recordBytes), 
+                Record.slice(recordBytes, Leader.LENGTH, recordBytes.limit()), projection);
+        this.original = recordBytes;
+    }
+    
+    /**
+     * Reads the leader from the start of a record's bytes.
+     * @param recordBytes the record including the leader.
+     * @return leader object with its own copy of the leader bytes.
+     */
+    static Leader readLeader(ByteBuffer recordBytes)
+    {
+        byte[] leaderArray = new byte[Leader.LENGTH];
+        ByteBuffer view = recordBytes.duplicate();
+        view.position(0);
+        view.get(leaderArray);
+        return new Leader(leaderArray);
+    }
+    
+    /**
+     * Creates a record from a buffer of the record's bytes, without the leader.
+     * Fields refer to slices of the buffer, so no bytes are copied unless a 
+     * field is changed.
+     * @param leader object. Contains the remaining record's geometry.
+     * @param recordBytes bytes of the record, say, a slice of a memory mapped 
+     * MARC file. Position 0 must be the first byte after the leader.
+     */
+    public Record(Leader leader, ByteBuffer recordBytes)
+    {
+        this(leader, recordBytes, null);
+    }
+    
+    /**
+     * Creates a record from a buffer of the record's bytes, without the leader,
+     * only making fields for the projected tags.
+     * @param leader object. Contains the remaining record's geometry.
+     * @param recordBytes bytes of the record. Position 0 must be the first 
+     * byte after the leader.
+     * @param projection tag numbers of the fields to make, or null for all.
+     */
+    public Record(Leader leader, ByteBuffer recordBytes, BitSet projection)
     {
         this.leader           = leader;
         this.directoryEntries = new ArrayList<>();
-        List<Integer> splits  = Record.splitOnRS(recordArray);
-        // the first one on the list is a list of all the tags lengths and offsets, 
-        // they are all 12 bytes long. Consume the first one because the rest are
-        // the offsets to the data itself.
-        List<String> tags = Record.getTags(splits.get(0), recordArray);
-        int lastPosition = splits.remove(0);
-        // advance one byte to avoid copying the RS byte.
-        lastPosition++;
-        // Now the lists are the same length let's proceed.
-        int tagIndex = 0;
-        for (int currentEndPosition: splits)
-        {
-            byte[] tagContent = Arrays.copyOfRange(recordArray, lastPosition, currentEndPosition);
-            lastPosition = currentEndPosition +1;
-            // get the name of the tag.
-            String tagName = tags.get(tagIndex++);
-            // make a new directory entry
-            DirectoryEntry de = null;
+        this.original         = null;
+        this.isModified       = false;
+        this.projection       = projection;
+        this.recordBytes      = recordBytes;
+        this.rawFields        = null;
+        this.rawCount         = 0;
+        // The directory runs from the end of the leader to the base address 
+        // of data, and each entry locates its field relative to that address.
+        int dataStart = Record.getDataStart(leader, recordBytes);
+        int entries   = (dataStart - 1) / DirectoryEntry.LENGTH;
+        int[] field   = new int[3];
+        for (int entry = 0; entry < entries; entry++)
+        {
             try
             {
-                de = new DirectoryEntry(tagName, tagContent);
+                Record.readDirectoryEntry(recordBytes, entry, dataStart, field);
             }
             catch (MARCError e)
             {
-                System.err.printf("** offending record's TCN is '%s'\n", this.getTCN());
-                // Back up and assume this is the new record start if relaxed mode is on.
+                if (! isQuiet)
+                {
+                    System.err.printf("** offending record's TCN is '%s'\n", this.getTCN());
+                }
                 if (isRelaxedChecking)
                 {
                     // Just keep going, we've warned them, but the user isn't fussy.
-                    // The user will be missing two records, one that started ok and 
-                    // the one after that that broke on the wrong RS.
+                    // The user will be missing the field.
+                    this.isModified = true;
                     continue;
                 }
-                System.exit(3);
+                throw e;
+            }
+            if (this.projection == null || this.projection.get(field[0]))
+            {
+                DirectoryEntry de = new DirectoryEntry(Tag.valueOf(field[0]), 
+                        Record.slice(recordBytes, field[1], field[2]));
+                de.position = entry;
+                this.directoryEntries.add(de);
+            }
+            else
+            {
+                this.addRawField(entry, field);
             }
-            this.directoryEntries.add(de);
         }
+        // The error reporting above may have indexed a partial directory.
+        this.tagPresence = null;
+        this.tagIndex    = null;
         this.ignoreTags= new ArrayList<>();
         // Don't check these tags for compliance, they don't take free-form characters.
-        this.ignoreTags.add(new Tag("008"));
-        this.ignoreTags.add(new Tag("035"));
+        this.ignoreTags.add(Tag.valueOf("008"));
+        this.ignoreTags.add(Tag.valueOf("035"));
+    }
+    
+    /**
+     * Finds where the data starts after the directory. Normally this is the
+     * base address in the leader, but if that doesn't point just past the 
+     * directory terminator, the terminator is found by checking the end of 
+     * each directory entry.
+     * @param leader the record's leader.
+     * @param recordBytes record less the leader.
+     * @return index of the first byte of data in recordBytes.
+     */
+    private static int getDataStart(Leader leader, ByteBuffer recordBytes)
+    {
+        int dataStart = leader.getBaseAddress() - Leader.LENGTH;
+        if (Record.isDirectoryEnd(recordBytes, dataStart))
+        {
+            return dataStart;
+        }
+        dataStart = Record.findDirectoryEnd(recordBytes);
+        if (! isQuiet)
+        {
+            System.err.printf("** warning, base address of data '%d' doesn't "
+                    + "match the end of the directory at '%d'.\n", 
+                    leader.getBaseAddress(), dataStart + Leader.LENGTH);
+        }
+        return dataStart;
+    }
+    
+    /**
+     * Tests if the base address of data points just past the directory terminator.
+     * @param recordBytes record less the leader.
+     * @param dataStart base address of data less the length of the leader.
+     * @return true if it does and false otherwise.
+     */
+    private static boolean isDirectoryEnd(ByteBuffer recordBytes, int dataStart)
+    {
+        return dataStart > 0 
+                && dataStart <= recordBytes.limit() 
+                && (dataStart - 1) % DirectoryEntry.LENGTH == 0
+                && recordBytes.get(dataStart - 1) == RS;
+    }
+    
+    /**
+     * Finds the directory terminator by checking the end of each directory entry.
+     * @param recordBytes record less the leader.
+     * @return index of the first byte of data in recordBytes.
+     * @throws MARCError if the directory isn't terminated.
+     */
+    private static int findDirectoryEnd(ByteBuffer recordBytes) throws MARCError
+    {
+        int i = -1;
+        while ((i = DelimiterScanner.indexOf(recordBytes, i + 1, recordBytes.limit(), RS)) >= 0)
+        {
+            if (i % DirectoryEntry.LENGTH == 0)
+            {
+                return i + 1;
+            }
+        }
+        throw new MARCError(MARCError.Reason.INVALID_DIRECTORY_ENTRY, "", -1,
+                "** error, record directory is not terminated.");
+    }
+    
+    /**
+     * Checks that a record can be read without reading it: that its directory
+     * is terminated and, in strict mode, that every directory entry locates a
+     * field of the record. In relaxed mode bad entries are dropped when the
+     * record is read, see {@link #setStrict(boolean)}. Nothing is printed 
+     * unless the record is malformed.
+     * @param recordBytes the record including the leader.
+     * @throws MARCError describing the first problem found.
+     */
+    static void checkStructure(ByteBuffer recordBytes) throws MARCError
+    {
+        ByteBuffer body = Record.slice(recordBytes, Leader.LENGTH, recordBytes.limit());
+        int dataStart = Utility.getDigits(recordBytes, 12, 5) - Leader.LENGTH;
+        if (! Record.isDirectoryEnd(body, dataStart))
+        {
+            dataStart = Record.findDirectoryEnd(body);
+        }
+        if (isRelaxedChecking)
+        {
+            return;
+        }
+        int entries = (dataStart - 1) / DirectoryEntry.LENGTH;
+        int[] field = new int[3];
+        for (int entry = 0; entry < entries; entry++)
+        {
+            Record.readDirectoryEntry(body, entry, dataStart, field);
+        }
+    }
+    
+    /**
+     * Reads a directory entry and locates the field it describes.
+     * @param recordBytes record less the leader.
+     * @param entry 0-based index of the directory entry.
+     * @param dataStart index of the base address of data in recordBytes.
+     * @param field set to the tag number, and the index of the first byte of 
+     * the field's data and of its field terminator.
+     * @throws MARCError if the tag, length or starting position are invalid,
+     * or the field they describe isn't in the record.
+     */
+    private static void readDirectoryEntry(ByteBuffer recordBytes, int entry, int dataStart, 
+            int[] field) throws MARCError
+    {
+        int offset = entry * DirectoryEntry.LENGTH;
+        Tag tag = Tag.valueOf(recordBytes, offset);
+        //  000|xxxx|00000 includes the field terminator.
+        int fieldLength = Utility.getDigits(recordBytes, offset + 3, 4);
+        //  0000000|xxxxx relative to the base address of data.
+        int startPosition = Utility.getDigits(recordBytes, offset + 7, 5);
+        if (fieldLength < 1 || startPosition < 0)
+        {
+            throw new MARCError(MARCError.Reason.INVALID_DIRECTORY_ENTRY, tag.toString(), entry,
+                    String.format("** error, directory entry %d '%s' has an invalid length or starting position.", 
+                            entry, Utility.getByteRange(recordBytes, offset, offset + DirectoryEntry.LENGTH)));
+        }
+        int start = dataStart + startPosition;
+        int end   = start + fieldLength - 1; // index of the field terminator.
+        if (end >= recordBytes.limit())
+        {
+            throw new MARCError(MARCError.Reason.FIELD_OUT_OF_RANGE, tag.toString(), entry,
+                    String.format("** error, field %s (entry %d) at %d, length %d runs past the end of the record.", 
+                            tag, entry, startPosition, fieldLength));
+        }
+        if (recordBytes.get(end) != RS)
+        {
+            throw new MARCError(MARCError.Reason.MISSING_FIELD_TERMINATOR, tag.toString(), entry,
+                    String.format("** error, field %s (entry %d) at %d, length %d doesn't end with a field terminator.", 
+                            tag, entry, startPosition, fieldLength));
+        }
+        field[0] = tag.getCode();
+        field[1] = start;
+        field[2] = end;
+    }
+    
+    /**
+     * Keeps a field outside the projection as a range of the record's bytes.
+     * @param entry 0-based index of the directory entry.
+     * @param field tag number, start and end of the field's data.
+     */
+    private void addRawField(int entry, int[] field)
+    {
+        if (this.rawFields == null)
+        {
+            this.rawFields = new int[8 * RAW_FIELD_SIZE];
+        }
+        else if ((this.rawCount + 1) * RAW_FIELD_SIZE > this.rawFields.length)
+        {
+            this.rawFields = Arrays.copyOf(this.rawFields, this.rawFields.length * 2);
+        }
+        int i = this.rawCount++ * RAW_FIELD_SIZE;
+        this.rawFields[i]     = entry;
+        this.rawFields[i + 1] = field[0];
+        this.rawFields[i + 2] = field[1];
+        this.rawFields[i + 3] = field[2];
+    }
+    
+    /**
+     * Tests if the next field in directory order is a raw field.
+     * @param d index of the next DirectoryEntry.
+     * @param r index of the next raw field.
+     * @return true if raw field r comes before DirectoryEntry d.
+     */
+    private boolean isRawNext(int d, int r)
+    {
+        return r < this.rawCount && (d >= this.directoryEntries.size() 
+                || this.rawFields[r * RAW_FIELD_SIZE] < this.directoryEntries.get(d).position);
+    }
+    
+    /**
+     * Makes DirectoryEntry objects for the fields outside the projection, in
+     * their place in the directory, for operations that need every field.
+     */
+    private void materialize()
+    {
+        this.projection = null;
+        if (this.rawCount == 0)
+        {
+            return;
+        }
+        List<DirectoryEntry> all = new ArrayList<>(this.directoryEntries.size() + this.rawCount);
+        int d = 0;
+        for (int r = 0; r < this.rawCount; )
+        {
+            if (this.isRawNext(d, r))
+            {
+                int i = r++ * RAW_FIELD_SIZE;
+                DirectoryEntry de = new DirectoryEntry(Tag.valueOf(this.rawFields[i + 1]), 
+                        Record.slice(this.recordBytes, this.rawFields[i + 2], this.rawFields[i + 3]));
+                de.position = this.rawFields[i];
+                all.add(de);
+            }
+            else
+            {
+                all.add(this.directoryEntries.get(d++));
+            }
+        }
+        all.addAll(this.directoryEntries.subList(d, this.directoryEntries.size()));
+        this.directoryEntries.clear();
+        this.directoryEntries.addAll(all);
+        this.rawFields   = null;
+        this.rawCount    = 0;
+        this.tagPresence = null;
+        this.tagIndex    = null;
+    }
+    
+    /**
+     * Returns a view of a range of the argument buffer without copying.
+     * @param buffer source bytes.
+     * @param start index of the first byte of the range.
+     * @param end index one past the last byte of the range.
+     * @return read only buffer of the range whose position is 0.
+     */
+    static ByteBuffer slice(ByteBuffer buffer, int start, int end)
+    {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(end);
+        view.position(start);
+        return view.slice().asReadOnlyBuffer();
     }
     
     /**
@@ -164,7 +470,7 @@ public class Record
         {
             for (Tag tag: this.ignoreTags)
             {
-                if (tag.compareTo(de.getTag()) == 0)
+                if (tag.isTag(de.getTag().getCode()))
                 {
                     continue OUTER;
                 }
@@ -174,6 +480,21 @@ public class Record
                 return true;
             }
         }
+        OUTER: for (int i = 0; i < this.rawCount * RAW_FIELD_SIZE; i += RAW_FIELD_SIZE)
+        {
+            for (Tag tag: this.ignoreTags)
+            {
+                if (tag.isTag(this.rawFields[i + 1]))
+                {
+                    continue OUTER;
+                }
+            }
+            if (Content.containsMultilingualEncoding(this.recordBytes, 
+                    this.rawFields[i + 2], this.rawFields[i + 3]))
+            {
+                return true;
+            }
+        }
         return false;
     }
     
@@ -184,6 +505,7 @@ public class Record
      */
     public List<String> getTags()
     {
+        this.materialize();
         List<String> tags = new ArrayList<>();
         for (DirectoryEntry d: this.directoryEntries)
         {
@@ -193,68 +515,177 @@ public class Record
     }
     
     /**
-     * Gets the data payload of the Record object.
-     * @return byte array of all the data of the record.
+     * Adds a step that finishes work on the record started on another thread.
+     * The step waits for the work, then applies the result to the record, and
+     * is run by {@link #finishPending()} on the thread that has the record.
+     * @param step the step.
      */
-    private byte[] getDataPayload()
+    public void addPending(Runnable step)
     {
-        List<Byte> dataBytes = new ArrayList<>();
+        if (this.pending == null)
+        {
+            this.pending = new ArrayList<>();
+        }
+        this.pending.add(step);
+    }
+    
+    /**
+     * Waits for work started on other threads and applies the results, in
+     * the order the work was started. Called before the record is written or
+     * printed.
+     */
+    public void finishPending()
+    {
+        if (this.pending == null)
+        {
+            return;
+        }
+        List<Runnable> steps = this.pending;
+        this.pending = null;
+        for (Runnable step: steps)
+        {
+            step.run();
+        }
+    }
+    
+    /**
+     * Tests if the record has changed since it was read. Changes made directly
+     * to a field's {@link Content} and to the leader count as changes.
+     * @return true if the record can no longer be written from its original
+     * bytes and false otherwise.
+     */
+    public boolean isModified()
+    {
+        if (this.original == null || this.isModified)
+        {
+            return true;
+        }
         for (DirectoryEntry d: this.directoryEntries)
         {
-            for (byte b: d.content.getBytes())
+            if (d.content.isChanged())
             {
-                dataBytes.add(b);
+                return true;
             }
-            // add the directory record separator RS
-            dataBytes.add((byte)RS);
         }
-        // And record terminator
-        dataBytes.add((byte)GS);
-        byte[] data = new byte[dataBytes.size()];
-        int index = 0;
-        for (byte b: dataBytes)
+        byte[] leaderBytes = this.leader.getLeaderBytes();
+        for (int i = 0; i < Leader.LENGTH; i++)
         {
-            data[index++] = b;
+            if (leaderBytes[i] != this.original.get(i))
+            {
+                return true;
+            }
         }
-        return data;
+        return false;
     }
     
     /**
-     * Gets all the bytes of the directory for the MARC record.
-     * @return array of bytes of the MARC record directory.
+     * Computes the length the record will have when written.
+     * @return length of the record in bytes, including the leader.
      */
-    private byte[] getDirectoryBytes()
+    public int getLength()
     {
-        List<Byte> outArray = new ArrayList<>();
-        int previousDataStartPosition = 0;
-//        int deIndex = 0;
+        if (! this.isModified())
+        {
+            return this.original.limit();
+        }
+        int length = this.getBaseAddress();
         for (DirectoryEntry d: this.directoryEntries)
         {
-            // the offset into the directory array for this entry is
-//            int pos = deIndex++ * DirectoryEntry.LENGTH;
-            // add the tag |xxx|000000000
-//            outArray.addAll(Utility.getBytes(d.tag));
-            outArray.addAll(d.tag.getBytesList());
-            // add the length of the data not including the RS byte.
+            length += d.getDataLength();
+        }
+        for (int i = 0; i < this.rawCount * RAW_FIELD_SIZE; i += RAW_FIELD_SIZE)
+        {
+            // Data and the field terminator.
+            length += this.rawFields[i + 3] - this.rawFields[i + 2] + 1;
+        }
+        // And record terminator
+        return length + 1;
+    }
+    
+    /**
+     * @return the length of the leader and directory including the directory 
+     * terminator.
+     */
+    private int getBaseAddress()
+    {
+        return Leader.LENGTH 
+                + (this.directoryEntries.size() + this.rawCount) * DirectoryEntry.LENGTH + 1;
+    }
+    
+    /**
+     * Serializes the record at the buffer's position. The leader's record length
+     * and base address are updated to match the current fields.
+     * @param out the buffer to write to, must have at least {@link #getLength()} 
+     * bytes remaining.
+     * @throws java.nio.BufferOverflowException if the buffer is too small.
+     * @throws IllegalArgumentException if the record or one of its fields is 
+     * too long to be described by the leader or directory.
+     */
+    public void write(ByteBuffer out)
+    {
+        int length = this.getLength();
+        if (out.remaining() < length)
+        {
+            throw new BufferOverflowException();
+        }
+        if (! this.isModified())
+        {
+            // Pass the record through as it was read.
+            out.put(this.original.duplicate());
+            return;
+        }
+        // If the content of the record has changed the leader needs to be updated.
+        this.leader.setLogicalRecordLength(length);
+        this.leader.setBaseAddress(this.getBaseAddress());
+        out.put(this.leader.getLeaderBytes());
+        // Fields outside the projection are merged back in directory order.
+        int fields = this.directoryEntries.size() + this.rawCount;
+        int startPosition = 0;
+        for (int f = 0, d = 0, r = 0; f < fields; f++)
+        {
+            int dataLength;
+            if (this.isRawNext(d, r))
+            {
+                int i = r++ * RAW_FIELD_SIZE;
+                Tag.valueOf(this.rawFields[i + 1]).write(out);
+                dataLength = this.rawFields[i + 3] - this.rawFields[i + 2] + 1;
+            }
+            else
+            {
+                DirectoryEntry de = this.directoryEntries.get(d++);
+                // add the tag |xxx|000000000
+                de.tag.write(out);
+                dataLength = de.getDataLength();
+            }
+            // add the length of the data including the RS byte.
             //  000|xxxx|00000
-            String dataLength = Utility.getZeroPaddedInteger(d.getDataLength(), 4);
-            outArray.addAll(Utility.getBytes(dataLength));
-            // add the offset to the data including the RS byte.
+            Utility.putDigits(out, dataLength, 4);
+            // add the offset to the data.
             //  0000000|xxxxx
-            String startPosition = Utility.getZeroPaddedInteger(previousDataStartPosition, 5);
-            outArray.addAll(Utility.getBytes(startPosition));
-//            // Advance the position to the end of the previoius data including the RS byte.
-            previousDataStartPosition += d.getDataLength();
+            Utility.putDigits(out, startPosition, 5);
+            startPosition += dataLength;
         }
         // add the directory terminator RS
-        outArray.add((byte)RS);
-        byte[] dirArray = new byte[outArray.size()];
-        int index = 0;
-        for (byte b: outArray)
+        out.put((byte)RS);
+        ByteBuffer raw = this.recordBytes.duplicate();
+        for (int f = 0, d = 0, r = 0; f < fields; f++)
         {
-            dirArray[index++] = b;
+            if (this.isRawNext(d, r))
+            {
+                int i = r++ * RAW_FIELD_SIZE;
+                raw.limit(this.rawFields[i + 3]);
+                raw.position(this.rawFields[i + 2]);
+                out.put(raw);
+            }
+            else
+            {
+                this.directoryEntries.get(d++).content.write(out);
+            }
+            // add the field terminator RS
+            out.put((byte)RS);
         }
-        return dirArray;
+        // And record terminator
+        out.put((byte)GS);
     }
 
     /**
@@ -264,16 +695,42 @@ public class Record
      */
     public void write(OutputStream out) throws IOException
     {
-        // We have to update the leader with the new length of the logical record,
-        // but to do that we need the length of the directory + length of the
-        // data section.
-        byte[] dir = this.getDirectoryBytes();
-        byte[] dataPayload = this.getDataPayload();
-        // If the content of the record has changed the leader needs to be updated.
-        this.leader.setLogicalRecordLength(Leader.LENGTH + dir.length + dataPayload.length);
-        out.write(this.leader.getLeaderBytes());
-        out.write(dir);
-        out.write(dataPayload);
+        if (! this.isModified() && this.original.hasArray())
+        {
+            out.write(this.original.array(), this.original.arrayOffset(), this.original.limit());
+            return;
+        }
+        ByteBuffer buffer = Record.writeBuffer.get();
+        buffer.clear();
+        this.write(buffer);
+        out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+    }
+    
+    /**
+     * Writes the record to the argument channel.
+     * @param out the channel, typically a FileChannel.
+     * @throws java.io.IOException if there was a problem during writing the record.
+     */
+    public void write(GatheringByteChannel out) throws IOException
+    {
+        if (! this.isModified())
+        {
+            // Straight from the original, which may be memory mapped, to the channel.
+            ByteBuffer unchanged = this.original.duplicate();
+            while (unchanged.hasRemaining())
+            {
+                out.write(unchanged);
+            }
+            return;
+        }
+        ByteBuffer buffer = Record.writeBuffer.get();
+        buffer.clear();
+        this.write(buffer);
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            out.write(buffer);
+        }
     }
     
     /**
@@ -283,14 +740,27 @@ public class Record
      * the order they were found in.
      */
     public List<byte[]> getTagContent(String tag)
+    {
+        return this.getTagContent(Tag.getCode(tag));
+    }
+    
+    /**
+     * Returns the content of each of the named tags.
+     * @param tag the tag.
+     * @return List of byte[] one for each tag that was found in the record in
+     * the order they were found in.
+     */
+    public List<byte[]> getTagContent(Tag tag)
+    {
+        return this.getTagContent(tag.getCode());
+    }
+    
+    private List<byte[]> getTagContent(int tagCode)
     {
         List<byte[]> returnArray = new ArrayList<>();
-        for (DirectoryEntry d: this.directoryEntries)
+        for (DirectoryEntry d: this.getIndexedTags(tagCode))
         {
-            if (d.getTag().isTag(tag))
-            {
-                returnArray.add(d.content.getBytes());
-            }
+            returnArray.add(d.content.getBytes());
         }
         return returnArray;
     }
@@ -302,16 +772,31 @@ public class Record
      * @return true if the tag was found and data copied and false otherwise.
      */
     public boolean setTagContent(String tag, List<byte[]> newContent)
+    {
+        int tagCode = Tag.getCode(tag);
+        if (tagCode < 0)
+        {
+            return false;
+        }
+        return this.setTagContent(Tag.valueOf(tagCode), newContent);
+    }
+    
+    /**
+     * Sets the content of each of the tags to the values supplied in the 
+     * argument newContent.
+     * @param tag the tag.
+     * @param newContent - the new bytes to write as content, one for each field.
+     * @return true if the tag was found and data copied and false otherwise.
+     */
+    public boolean setTagContent(Tag tag, List<byte[]> newContent)
     {
         boolean result = false;
-        for (DirectoryEntry d: this.directoryEntries)
+        for (DirectoryEntry d: this.getIndexedTags(tag.getCode()))
         {
-            if (d.getTag().isTag(tag))
-            {
-                byte[] newArray = newContent.remove(0);
-                d.content = new Content(newArray);
-                result = true;
-            }
+            byte[] newArray = newContent.remove(0);
+            d.content = new Content(newArray);
+            this.isModified = true;
+            result = true;
         }
         return result;
     }
@@ -324,14 +809,50 @@ public class Record
      */
     public String getTag(String tag)
     {
-        for (DirectoryEntry d: this.directoryEntries)
+        return this.getTag(Tag.getCode(tag));
+    }
+    
+    /**
+     * 
+     * @param tag the desired tag.
+     * @return the string of the first tag encountered in the MARC record
+     * or an empty string if the tag was not found.
+     */
+    public String getTag(Tag tag)
+    {
+        return this.getTag(tag.getCode());
+    }
+    
+    private String getTag(int tagCode)
+    {
+        List<DirectoryEntry> tags = this.getIndexedTags(tagCode);
+        if (tags.isEmpty())
         {
-            if (d.getTag().isTag(tag))
-            {
-                return d.content.toString();
-            }
+            return "";
         }
-        return "";
+        return tags.get(0).content.toString();
+    }
+    
+    /**
+     * Tests if the record has a field without searching the fields.
+     * @param tag name of the field, like '856'.
+     * @return true if the record has at least one of the named field and 
+     * false otherwise.
+     */
+    public boolean hasTag(String tag)
+    {
+        int tagCode = Tag.getCode(tag);
+        return tagCode >= 0 && this.getTagPresence().get(tagCode);
+    }
+    
+    /**
+     * Tests if the record has a field without searching the fields.
+     * @param tag the tag.
+     * @return true if the record has at least one of the field and false otherwise.
+     */
+    public boolean hasTag(Tag tag)
+    {
+        return this.getTagPresence().get(tag.getCode());
     }
     
     /**
@@ -342,16 +863,104 @@ public class Record
      */
     public List<DirectoryEntry> getTags(String tag)
     {
-        List<DirectoryEntry> tagsContent = new ArrayList<>();
+        return Collections.unmodifiableList(this.getIndexedTags(Tag.getCode(tag)));
+    }
+    
+    /**
+     * Gets all the fields with the argument tag.
+     * @param tag the tag.
+     * @return List of all the fields with the tag, in record order. 
+     * If the record doesn't have the tag the list will be empty.
+     */
+    public List<DirectoryEntry> getTags(Tag tag)
+    {
+        return Collections.unmodifiableList(this.getIndexedTags(tag.getCode()));
+    }
+    
+    /**
+     * Gets the bitmap of the tags in the record, building the tag index if 
+     * this is the first lookup.
+     * @return BitSet with a bit set for each tag number in the record.
+     */
+    private BitSet getTagPresence()
+    {
+        if (this.tagPresence == null)
+        {
+            this.buildTagIndex();
+        }
+        return this.tagPresence;
+    }
+    
+    /**
+     * Indexes the fields by tag number in a single pass over the fields.
+     */
+    private void buildTagIndex()
+    {
+        this.tagPresence = new BitSet(Tag.MAX_TAG + 1);
+        this.tagIndex    = new ArrayList<>(Collections.nCopies(Tag.MAX_TAG + 1, (List<DirectoryEntry>) null));
         for (DirectoryEntry de: this.directoryEntries)
         {
-            if (de.getTag().isTag(tag))
+            int tagNumber = de.getTag().getCode();
+            if (this.tagIndex.get(tagNumber) == null)
             {
-                tagsContent.add(de);
+                this.tagIndex.set(tagNumber, new ArrayList<>(1));
+                this.tagPresence.set(tagNumber);
             }
+            this.tagIndex.get(tagNumber).add(de);
+        }
+        // Fields outside the projection are present but not indexed.
+        for (int i = 0; i < this.rawCount * RAW_FIELD_SIZE; i += RAW_FIELD_SIZE)
+        {
+            this.tagPresence.set(this.rawFields[i + 1]);
+        }
+    }
+    
+    /**
+     * Gets the indexed fields for a tag. The returned list is never changed, 
+     * adding and removing fields replaces the index's list, so callers may 
+     * change the record while they iterate over it.
+     * @param tagNumber number of the tag, or -1 for an invalid tag.
+     * @return list of the fields in record order, empty if there are none.
+     */
+    private List<DirectoryEntry> getIndexedTags(int tagNumber)
+    {
+        if (tagNumber < 0 || ! this.getTagPresence().get(tagNumber))
+        {
+            return Collections.emptyList();
+        }
+        if (this.tagIndex.get(tagNumber) == null)
+        {
+            // Only raw fields have this tag.
+            this.materialize();
+            return this.getIndexedTags(tagNumber);
         }
-        return tagsContent;
+        return this.tagIndex.get(tagNumber);
     }
+    
+    /**
+     * Replaces the fields of a tag in the index.
+     * @param tagNumber number of the tag.
+     * @param entries the fields in record order, empty if there are none.
+     */
+    private void setIndexedTags(int tagNumber, List<DirectoryEntry> entries)
+    {
+        if (this.tagPresence == null)
+        {
+            // Not built yet, the next lookup will find the change.
+            return;
+        }
+        if (entries.isEmpty())
+        {
+            this.tagIndex.set(tagNumber, null);
+            this.tagPresence.clear(tagNumber);
+        }
+        else
+        {
+            this.tagIndex.set(tagNumber, entries);
+            this.tagPresence.set(tagNumber);
+        }
+    }
+    
 
     /**
      * 
@@ -439,25 +1048,41 @@ public class Record
      */
     public boolean removeTags(String tag, String match) 
     {
-        // just remove all tag references and return.
-        List<DirectoryEntry> myTargetDEntry = new ArrayList<>();
-        for (DirectoryEntry dEntry: this.directoryEntries)
+        int tagCode = Tag.getCode(tag);
+        if (tagCode < 0)
         {
-            if (dEntry.getTag().isTag(tag))
-            {
-                myTargetDEntry.add(dEntry);
-            }
+            return false;
         }
+        return this.removeTags(Tag.valueOf(tagCode), match);
+    }
+    
+    /**
+     * Removes fields from a record that contain the argument match. 
+     * @param tag the field's tag.
+     * @param match match this string in the field before considering deletion.
+     * @return true if the field was found in the record and removed, and 
+     * false otherwise.
+     */
+    public boolean removeTags(Tag tag, String match) 
+    {
+        List<DirectoryEntry> myTargetDEntry = this.getIndexedTags(tag.getCode());
         if (myTargetDEntry.size() > 0)
         {
+            List<DirectoryEntry> keep = new ArrayList<>();
             for (DirectoryEntry dEntry: myTargetDEntry)
             {
                 // match not specified, or match matched.
                 if (match == null || match.isEmpty() || dEntry.contains(match))
                 {
                     this.directoryEntries.remove(dEntry);
+                    this.isModified = true;
+                }
+                else
+                {
+                    keep.add(dEntry);
                 }
             }
+            this.setIndexedTags(tag.getCode(), keep);
         }
         return myTargetDEntry.size() > 0;
     }
@@ -471,21 +1096,32 @@ public class Record
      */
     public boolean removeTags(String tag) 
     {
-        // just remove all tag references and return.
-        List<DirectoryEntry> myTargetDEntry = new ArrayList<>();
-        for (DirectoryEntry dEntry: this.directoryEntries)
+        int tagCode = Tag.getCode(tag);
+        if (tagCode < 0)
         {
-            if (dEntry.getTag().isTag(tag))
-            {
-                myTargetDEntry.add(dEntry);
-            }
+            return false;
         }
+        return this.removeTags(Tag.valueOf(tagCode));
+    }
+    
+    /**
+     * Removes all the fields with the argument tag from a record.
+     * @param tag the field's tag.
+     * @return true if the field was found in the record and removed, and 
+     * false otherwise.
+     */
+    public boolean removeTags(Tag tag) 
+    {
+        // just remove all tag references and return.
+        List<DirectoryEntry> myTargetDEntry = this.getIndexedTags(tag.getCode());
         if (myTargetDEntry.size() > 0)
         {
             for (DirectoryEntry dEntry: myTargetDEntry)
             {
                 this.directoryEntries.remove(dEntry);
             }
+            this.setIndexedTags(tag.getCode(), Collections.<DirectoryEntry>emptyList());
+            this.isModified = true;
         }
         return myTargetDEntry.size() > 0;
     }
@@ -499,30 +1135,75 @@ public class Record
      */
     public boolean addTag(String tag, String tagContent)
     {
+        return this.addTag(Tag.valueOf(tag), tagContent);
+    }
+    
+    /**
+     * Adds a field to a record. Use '$' as a field separator, so 'this$vthat'
+     * creates the field with a subfield 'v' of 'that'.
+     * @param tag the field's tag.
+     * @param tagContent string of the fields payload.
+     * @return true if the field was not empty, not null, and created, and false otherwise.
+     */
+    public boolean addTag(Tag tag, String tagContent)
+    {
+        // The new field is sorted in amongst all the others.
+        this.materialize();
         DirectoryEntry de = new DirectoryEntry(tag, tagContent);
         boolean result = this.directoryEntries.add(de);
         orderFields();
+        // The sort is stable so the new field follows any with the same tag.
+        if (this.tagPresence != null)
+        {
+            List<DirectoryEntry> entries = new ArrayList<>(this.getIndexedTags(tag.getCode()));
+            entries.add(de);
+            this.setIndexedTags(tag.getCode(), entries);
+        }
         return result;
     }
     
     /**
-     * Orders the tag fields, numerically by tag.
+     * Orders the tag fields, numerically by tag. Fields with the same tag 
+     * keep their order.
      */
     public void orderFields()
     {
-        Collections.sort(directoryEntries, new Comparator<DirectoryEntry>() 
+        this.materialize();
+        int size = this.directoryEntries.size();
+        int previous = 0;
+        boolean isSorted = true;
+        for (DirectoryEntry de: this.directoryEntries)
         {
-            public int compare(DirectoryEntry o1, DirectoryEntry o2) 
+            int code = de.getTag().getCode();
+            if (code < previous)
             {
-                int diff = o1.compareTo(o2);
-                if (diff > 0)
-                   return 1;
-                else if (diff <0)
-                   return -1;
-                else
-                   return 0;
+                isSorted = false;
+                break;
             }
-        });
+            previous = code;
+        }
+        if (isSorted)
+        {
+            return;
+        }
+        this.isModified = true;
+        // Counting sort on the tag number, which is stable.
+        int[] starts = new int[Tag.MAX_TAG + 2];
+        for (DirectoryEntry de: this.directoryEntries)
+        {
+            starts[de.getTag().getCode() + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++)
+        {
+            starts[i] += starts[i - 1];
+        }
+        DirectoryEntry[] sorted = new DirectoryEntry[size];
+        for (DirectoryEntry de: this.directoryEntries)
+        {
+            sorted[starts[de.getTag().getCode()]++] = de;
+        }
+        this.directoryEntries.clear();
+        this.directoryEntries.addAll(Arrays.asList(sorted));
     }
     
     @Override
@@ -532,6 +1213,7 @@ public class Record
         // output the leader.
         sb.append(this.leader.toString());
         sb.append("\r\n");
+        this.materialize();
         for (DirectoryEntry dEntry: this.directoryEntries)
         {
             sb.append(dEntry.toString());
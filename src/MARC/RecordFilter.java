@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 Andrew.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MARC;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A test on the bytes of a record as read from the MARC file, before the 
+ * record is decoded. Records can be selected by the reader at close to the
+ * speed the file can be read.
+ * @author Andrew Nisbet
+ */
+public interface RecordFilter
+{
+    /**
+     * Tests a record.
+     * @param recordBytes the whole record. Position 0 is the first byte of 
+     * the leader.
+     * @return true if the record is selected and false otherwise.
+     */
+    boolean accept(ByteBuffer recordBytes);
+}
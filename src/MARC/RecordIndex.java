@@ -0,0 +1,369 @@
+/*
+ * Copyright 2016 Andrew.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MARC;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the records in a MARC file, kept in a sidecar file next to it 
+ * named like 'records.mrc.idx'. The index maps each record's ordinal, and 
+ * its control numbers, the 001 and the $a of each 035, to the byte offset 
+ * and length of the record. The index remembers the size and 
+ * modification time of the MARC file, and is rebuilt if either changes.
+ * 
+ * The sidecar file holds, big-endian, the magic number and version, the MARC
+ * file's size and modification time, the record count followed by the offset
+ * and length of each record, then the key count followed by each key and its
+ * record's ordinal, sorted by key.
+ * @author Andrew Nisbet
+ */
+public class RecordIndex
+{
+    public final static String EXTENSION = ".idx";
+    private final static int MAGIC = 0x4d524349; // 'MRCI'
+    private final static int VERSION = 1;
+    private final long dataSize;
+    private final long dataModified;
+    private final long[] offsets;
+    private final int[] lengths;
+    // Control numbers, sorted, and the ordinal of the first record with each.
+    private final String[] keys;
+    private final int[] keyOrdinals;
+    
+    private RecordIndex(long dataSize, long dataModified, long[] offsets, int[] lengths, 
+            String[] keys, int[] keyOrdinals)
+    {
+        this.dataSize     = dataSize;
+        this.dataModified = dataModified;
+        this.offsets      = offsets;
+        this.lengths      = lengths;
+        this.keys         = keys;
+        this.keyOrdinals  = keyOrdinals;
+    }
+    
+    /**
+     * Opens the index of a MARC file, building it and writing the sidecar 
+     * file if there isn't one, or if the MARC file has changed since it was
+     * built. If the sidecar can't be written the index is still returned.
+     * @param marcFile name of the MARC file.
+     * @return the index.
+     * @throws IOException if the MARC file can't be read.
+     */
+    public static RecordIndex open(String marcFile) throws IOException
+    {
+        Path data = Paths.get(marcFile);
+        Path sidecar = Paths.get(marcFile + EXTENSION);
+        long size = Files.size(data);
+        long modified = Files.getLastModifiedTime(data).toMillis();
+        if (Files.isRegularFile(sidecar))
+        {
+            try (InputStream in = Files.newInputStream(sidecar))
+            {
+                RecordIndex index = RecordIndex.read(in);
+                if (index != null && index.dataSize == size && index.dataModified == modified)
+                {
+                    return index;
+                }
+            }
+            catch (IOException e)
+            {
+                System.err.printf("** warning, couldn't read index '%s', rebuilding it.\n", sidecar);
+            }
+        }
+        RecordIndex index = RecordIndex.build(data, size, modified);
+        try (OutputStream out = Files.newOutputStream(sidecar))
+        {
+            index.write(out);
+        }
+        catch (IOException e)
+        {
+            Logger.getLogger(RecordIndex.class.getName()).log(Level.SEVERE, 
+                    String.format("** error, couldn't write index '%s'.", sidecar), e);
+        }
+        return index;
+    }
+    
+    /**
+     * Builds the index by reading each record in turn.
+     * @param data the MARC file.
+     * @param size size of the file.
+     * @param modified modification time of the file.
+     * @return the index.
+     * @throws IOException if the file can't be read.
+     */
+    private static RecordIndex build(Path data, long size, long modified) throws IOException
+    {
+        long[] offsets = new long[1024];
+        int[] lengths = new int[1024];
+        List<String> keyList = new ArrayList<>();
+        List<Integer> ordinalList = new ArrayList<>();
+        // Only the control numbers are needed.
+        BitSet projection = new BitSet();
+        projection.set(Tag.valueOf("001").getCode());
+        projection.set(Tag.valueOf("035").getCode());
+        ByteBuffer buffer = ByteBuffer.allocate(Leader.MAX_RECORD_LENGTH);
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(data, StandardOpenOption.READ))
+        {
+            long position = 0L;
+            while (position + Leader.LENGTH <= size)
+            {
+                buffer.clear();
+                buffer.limit(Leader.LENGTH);
+                RecordIndex.readFully(channel, buffer, position);
+                int recordLength = Utility.getDigits(buffer, 0, 5);
+                if (recordLength < Leader.LENGTH || position + recordLength > size)
+                {
+                    System.err.printf("** error, invalid record length '%s' at byte %d, "
+                            + "only the records before it are indexed.\n", 
+                            Utility.getByteRange(buffer, 0, 5), position);
+                    break;
+                }
+                buffer.limit(recordLength);
+                RecordIndex.readFully(channel, buffer, position);
+                buffer.flip();
+                Record record = new Record(buffer, projection);
+                if (count == offsets.length)
+                {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    lengths = Arrays.copyOf(lengths, count * 2);
+                }
+                offsets[count] = position;
+                lengths[count] = recordLength;
+                List<String> controlNumbers = new ArrayList<>();
+                controlNumbers.add(record.getTag("001"));
+                for (DirectoryEntry de: record.getTags("035"))
+                {
+                    controlNumbers.add(de.getContent().extractSubfield('a'));
+                }
+                for (String key: controlNumbers)
+                {
+                    if (! key.isEmpty())
+                    {
+                        keyList.add(key);
+                        ordinalList.add(count);
+                    }
+                }
+                count++;
+                position += recordLength;
+            }
+        }
+        // Sort the keys, the first record with a key wins.
+        Integer[] order = new Integer[keyList.size()];
+        for (int i = 0; i < order.length; i++)
+        {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> 
+        {
+            int c = keyList.get(a).compareTo(keyList.get(b));
+            return c != 0 ? c : Integer.compare(ordinalList.get(a), ordinalList.get(b));
+        });
+        List<String> keys = new ArrayList<>();
+        List<Integer> keyOrdinals = new ArrayList<>();
+        for (int i: order)
+        {
+            String key = keyList.get(i);
+            if (keys.isEmpty() || ! keys.get(keys.size() - 1).equals(key))
+            {
+                keys.add(key);
+                keyOrdinals.add(ordinalList.get(i));
+            }
+        }
+        int[] ordinals = new int[keyOrdinals.size()];
+        for (int i = 0; i < ordinals.length; i++)
+        {
+            ordinals[i] = keyOrdinals.get(i);
+        }
+        return new RecordIndex(size, modified, Arrays.copyOf(offsets, count), 
+                Arrays.copyOf(lengths, count), keys.toArray(new String[keys.size()]), ordinals);
+    }
+    
+    /**
+     * Reads from the channel at a position until the buffer is full.
+     * @param channel the file.
+     * @param buffer the buffer to fill, from its position to its limit.
+     * @param position file position of the first byte of the buffer.
+     * @throws IOException if the file can't be read or ends first.
+     */
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) 
+            throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("** error, unexpected end of file.");
+            }
+        }
+    }
+    
+    /**
+     * Reads an index from a sidecar file.
+     * @param in the sidecar file.
+     * @return the index, or null if the file isn't an index of this version.
+     * @throws IOException if the file can't be read.
+     */
+    private static RecordIndex read(InputStream in) throws IOException
+    {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION)
+        {
+            return null;
+        }
+        long size = data.readLong();
+        long modified = data.readLong();
+        int count = data.readInt();
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            offsets[i] = data.readLong();
+            lengths[i] = data.readInt();
+        }
+        int keyCount = data.readInt();
+        String[] keys = new String[keyCount];
+        int[] keyOrdinals = new int[keyCount];
+        for (int i = 0; i < keyCount; i++)
+        {
+            keys[i] = data.readUTF();
+            keyOrdinals[i] = data.readInt();
+        }
+        return new RecordIndex(size, modified, offsets, lengths, keys, keyOrdinals);
+    }
+    
+    /**
+     * Writes the index to a sidecar file.
+     * @param out the sidecar file.
+     * @throws IOException if the file can't be written.
+     */
+    private void write(OutputStream out) throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(this.dataSize);
+        data.writeLong(this.dataModified);
+        data.writeInt(this.offsets.length);
+        for (int i = 0; i < this.offsets.length; i++)
+        {
+            data.writeLong(this.offsets[i]);
+            data.writeInt(this.lengths[i]);
+        }
+        data.writeInt(this.keys.length);
+        for (int i = 0; i < this.keys.length; i++)
+        {
+            data.writeUTF(this.keys[i]);
+            data.writeInt(this.keyOrdinals[i]);
+        }
+        data.flush();
+    }
+    
+    /**
+     * @return number of records in the MARC file.
+     */
+    public int size()
+    {
+        return this.offsets.length;
+    }
+    
+    /**
+     * @param ordinal 0-based number of the record in the file.
+     * @return byte offset of the record in the MARC file.
+     */
+    public long getOffset(int ordinal)
+    {
+        return this.offsets[ordinal];
+    }
+    
+    /**
+     * @param ordinal 0-based number of the record in the file.
+     * @return length of the record in bytes.
+     */
+    public int getLength(int ordinal)
+    {
+        return this.lengths[ordinal];
+    }
+    
+    /**
+     * Finds the record with a control number, the content of its 001 or the 
+     * $a of one of its 035s.
+     * @param controlNumber the control number.
+     * @return ordinal of the first record with the control number, or -1 if
+     * no record has it.
+     */
+    public int find(String controlNumber)
+    {
+        int i = Arrays.binarySearch(this.keys, controlNumber);
+        return i < 0 ? -1 : this.keyOrdinals[i];
+    }
+    
+    /**
+     * Splits a range of records into chunks of about the same number of bytes.
+     * @param from ordinal of the first record.
+     * @param to ordinal one past the last record.
+     * @param chunks the number of chunks wanted.
+     * @return ordinals of the first record of each chunk, followed by 'to'. 
+     * There are fewer chunks than requested if there are fewer records.
+     */
+    public int[] split(int from, int to, int chunks)
+    {
+        if (to <= from)
+        {
+            return new int[] {from, to};
+        }
+        long start = this.offsets[from];
+        long bytes = this.offsets[to - 1] + this.lengths[to - 1] - start;
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(from);
+        for (int chunk = 1; chunk < chunks; chunk++)
+        {
+            // First record that starts at or after the chunk's share of bytes.
+            long target = start + bytes * chunk / chunks;
+            int i = Arrays.binarySearch(this.offsets, from, to, target);
+            int bound = i < 0 ? -i - 1 : i;
+            if (bound > bounds.get(bounds.size() - 1) && bound < to)
+            {
+                bounds.add(bound);
+            }
+        }
+        bounds.add(to);
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Andrew Nisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MARC;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Malformed records set aside by the reader. The bytes of each are appended
+ * to a MARC file, so they can be repaired and run again, and a line is added 
+ * to a CSV log with the byte offset of the bytes in the original file, the 
+ * record's 0-based ordinal, empty for bytes that weren't framed as a record,
+ * the number of bytes and the reason, one of {@link MARCError.Reason}. The log is named after the reject file, with the
+ * extension .csv. Rejects are rare, so each is written as it's found.
+ * @author Andrew Nisbet
+ */
+public class RejectFile implements Closeable
+{
+    private final FileChannel records;
+    private final PrintWriter log;
+    private int count;
+
+    /**
+     * Bytes set aside by the reader, and why.
+     */
+    static class Entry
+    {
+        private final long offset;
+        private final long ordinal;
+        private final MARCError.Reason reason;
+        private final ByteBuffer bytes;
+
+        /**
+         * @param offset file position of the first byte.
+         * @param ordinal 0-based number of the record in the file, or -1 if not known.
+         * @param reason what was wrong.
+         * @param bytes the record, or the bytes skipped to reach the next record.
+         */
+        Entry(long offset, long ordinal, MARCError.Reason reason, ByteBuffer bytes)
+        {
+            this.offset  = offset;
+            this.ordinal = ordinal;
+            this.reason  = reason;
+            this.bytes   = bytes;
+        }
+
+        long getOffset()
+        {
+            return this.offset;
+        }
+
+        long getOrdinal()
+        {
+            return this.ordinal;
+        }
+
+        MARCError.Reason getReason()
+        {
+            return this.reason;
+        }
+
+        int getLength()
+        {
+            return this.bytes.remaining();
+        }
+    }
+
+    /**
+     * Creates, or empties, the reject file and its log.
+     * @param fileName name of the MARC file for the rejected bytes.
+     * @throws IOException if either file can't be created.
+     */
+    public RejectFile(String fileName) throws IOException
+    {
+        this.records = new FileOutputStream(fileName).getChannel();
+        this.log = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(RejectFile.getLogName(fileName)), StandardCharsets.UTF_8));
+        this.log.println("offset,ordinal,length,reason");
+        this.log.flush();
+        this.count = 0;
+    }
+
+    /**
+     * Names the log of a reject file, the reject file's name with its 
+     * extension, if any, replaced by .csv.
+     * @param fileName name of the reject file.
+     * @return name of the log.
+     */
+    public static String getLogName(String fileName)
+    {
+        int dot = fileName.lastIndexOf('.');
+        int slash = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+        return (dot > slash + 1 ? fileName.substring(0, dot) : fileName) + ".csv";
+    }
+
+    /**
+     * Appends rejected bytes and logs them.
+     * @param entry the rejected bytes.
+     * @throws IOException if the bytes can't be written.
+     */
+    synchronized void write(Entry entry) throws IOException
+    {
+        ByteBuffer bytes = entry.bytes.duplicate();
+        while (bytes.hasRemaining())
+        {
+            this.records.write(bytes);
+        }
+        this.log.printf("%d,%s,%d,%s\n", entry.offset, 
+                entry.ordinal < 0 ? "" : Long.toString(entry.ordinal), 
+                entry.getLength(), entry.reason);
+        this.log.flush();
+        this.count++;
+    }
+
+    /**
+     * @return number of rejects written.
+     */
+    public synchronized int getCount()
+    {
+        return this.count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        this.log.close();
+        this.records.close();
+    }
+}
@@ -15,43 +15,152 @@
  */
 package MARC;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Represents a tag for a MARC field.
+ * Represents a tag for a MARC field. The tag is held as its number, and there
+ * is one shared instance for each tag from 001 to 999, see {@link #valueOf(String)}.
  * @author Andrew
  */
 public class Tag implements Comparable
 {
-    private final String tag;
+    public static final int MAX_TAG = 999;
+    private static final Tag[] TAGS = new Tag[MAX_TAG + 1];
+    static
+    {
+        for (int code = 1; code <= MAX_TAG; code++)
+        {
+            TAGS[code] = new Tag((short)code);
+        }
+    }
+    private final short code;
+    private final String name;
     private static boolean isRelaxedChecking = false;
     
     /**
      * Create tag from given name. Checks that the tag is a valid tag name, that is
      * the tag is a string of 3 character numbers that range from 001 to 999.
+     * Prefer {@link #valueOf(String)} which doesn't create a new object.
      * @param name the tags name as a String (like '035').
      * @throws MARCError if tag was not a valid tag name.
      */
     public Tag(String name) throws MARCError
+    {
+        this(Tag.parse(name));
+    }
+    
+    private Tag(short code)
+    {
+        this.code = code;
+        this.name = String.format("%03d", code);
+    }
+    
+    /**
+     * Gets the shared tag for a given name.
+     * @param name the tags name as a String (like '035').
+     * @return Tag.
+     * @throws MARCError if tag was not a valid tag name.
+     */
+    public static Tag valueOf(String name) throws MARCError
+    {
+        return TAGS[Tag.parse(name)];
+    }
+    
+    /**
+     * Gets the shared tag for a given tag number.
+     * @param code the tag's number, 1 to 999.
+     * @return Tag.
+     * @throws IllegalArgumentException if the number is not a valid tag.
+     */
+    public static Tag valueOf(int code)
+    {
+        if (code < 1 || code > MAX_TAG)
+        {
+            throw new IllegalArgumentException(String.format("** error, invalid tag name\n."
+                    + "Must be a value between '001' and '999' but got '%d'\n", code));
+        }
+        return TAGS[code];
+    }
+    
+    /**
+     * Reads the shared tag from the 3 bytes at the argument index of the buffer, 
+     * like the first 3 bytes of a directory entry.
+     * @param buffer bytes to read.
+     * @param index of the first digit of the tag.
+     * @return Tag.
+     * @throws MARCError if the bytes are not a valid tag name.
+     */
+    static Tag valueOf(ByteBuffer buffer, int index) throws MARCError
+    {
+        int code = Utility.getDigits(buffer, index, 3);
+        if (code < 1)
+        {
+            // Including '000', which isn't a tag but is numeric.
+            String name = Utility.getByteRange(buffer, index, index + 3);
+            throw new MARCError(MARCError.Reason.INVALID_TAG, name, -1,
+                    String.format("** error, invalid tag name. The MARC file is malformed.\n"
+                    + "** Tags must have a value between '001' and '999' but got '%s'", name));
+        }
+        return TAGS[code];
+    }
+    
+    /**
+     * Converts a tag name into its number.
+     * @param name the tag as a String.
+     * @return the tag number, or -1 if the name isn't a valid tag.
+     */
+    public static int getCode(String name)
+    {
+        if (name == null)
+        {
+            return -1;
+        }
+        String trimmed = name.trim();
+        if (trimmed.isEmpty() || trimmed.length() > 3)
+        {
+            return -1;
+        }
+        int code = 0;
+        for (int i = 0; i < trimmed.length(); i++)
+        {
+            char c = trimmed.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+            code = code * 10 + (c - '0');
+        }
+        return code >= 1 ? code : -1;
+    }
+    
+    /**
+     * Checks and converts a tag name into its number.
+     * @param name the tags name as a String (like '035').
+     * @return tag number.
+     * @throws MARCError if the name isn't numeric.
+     * @throws IllegalArgumentException if the number is not between 1 and 999.
+     */
+    private static short parse(String name) throws MARCError
     {
         try
         {
             int tagNumber = Integer.parseInt(name.trim());
-            if (tagNumber < 1 || tagNumber > 999)
+            if (tagNumber < 1 || tagNumber > MAX_TAG)
             {
                 String msg = String.format("** error, invalid tag name\n."
                     + "Must be a value between '001' and '999' but got '%s'\n", name);
                 throw new IllegalArgumentException(msg);
             }
+            return (short)tagNumber;
         }
         catch (NumberFormatException e)
         {
-            throw new MARCError(
+            throw new MARCError(MARCError.Reason.INVALID_TAG, name, -1,
                     String.format("** error, invalid tag name. The MARC file is malformed.\n"
                     + "** Tags must have a value between '001' and '999' but got '%s'", name));
         }
-        this.tag = name;
     }
     
     /**
@@ -66,6 +175,14 @@ public class Tag implements Comparable
         return tagNumber;
     }
     
+    /**
+     * @return the tag's number, 1 to 999.
+     */
+    public int getCode()
+    {
+        return this.code;
+    }
+    
     /**
      * Set strict/non-strict, allowing reporting but continues processing, verses
      * throwing an exception on encountering an error.
@@ -84,17 +201,28 @@ public class Tag implements Comparable
     public List<Byte> getBytesList()
     {
         List<Byte> array = new ArrayList<>();
-        for (String tagString: this.tag.split("|"))
+        for (int i = 0; i < this.name.length(); i++)
         {
-            array.add((byte)tagString.charAt(0));
+            array.add((byte)this.name.charAt(i));
         }
         return array;
     }
     
+    /**
+     * Writes the tag's 3 digits at the buffer's position.
+     * @param out buffer to write to.
+     */
+    void write(ByteBuffer out)
+    {
+        out.put((byte)('0' + this.code / 100))
+           .put((byte)('0' + this.code / 10 % 10))
+           .put((byte)('0' + this.code % 10));
+    }
+    
     @Override
     public String toString()
     {
-        return this.tag;
+        return this.name;
     }
     
     /**
@@ -104,7 +232,17 @@ public class Tag implements Comparable
      */
     public boolean isTag(String tag)
     {
-        return this.tag.compareTo(tag) == 0;
+        return this.code == Tag.getCode(tag);
+    }
+    
+    /**
+     * Tests a given tag object for match on number.
+     * @param code number of the searched-for tag.
+     * @return true if this object has the argument number and false otherwise.
+     */
+    public boolean isTag(int code)
+    {
+        return this.code == code;
     }
 
     @Override
@@ -112,6 +250,18 @@ public class Tag implements Comparable
     {
         // For sorting.
         Tag testTag = (Tag)o;
-        return this.tag.compareTo(testTag.tag);
+        return this.code - testTag.code;
+    }
+    
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof Tag && ((Tag)o).code == this.code;
+    }
+    
+    @Override
+    public int hashCode()
+    {
+        return this.code;
     }
 }
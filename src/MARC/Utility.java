@@ -6,6 +6,7 @@
 
 package MARC;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -146,6 +147,96 @@ public class Utility
         return returnString;
     }
     
+    /**
+     * Reads a range of single byte characters from a buffer, without moving
+     * the buffer's position.
+     * @param buffer source of the bytes.
+     * @param start index of the first character.
+     * @param end index one past the last character.
+     * @return String of the characters in the range.
+     */
+    public static String getByteRange(ByteBuffer buffer, int start, int end)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = start; i < end; i++)
+        {
+            sb.append((char)buffer.get(i));
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Reads a run of ASCII digits from a buffer as a number, like the lengths
+     * and offsets of a directory entry.
+     * @param buffer source of the digits.
+     * @param start index of the first digit.
+     * @param width number of digits.
+     * @return the value of the digits, or -1 if any of the characters isn't a digit.
+     */
+    public static int getDigits(ByteBuffer buffer, int start, int width)
+    {
+        int value = 0;
+        for (int i = start; i < start + width; i++)
+        {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9)
+            {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+    
+    /**
+     * Writes a number as zero padded ASCII digits, like the lengths and 
+     * offsets of a directory entry, without creating any Strings.
+     * @param dst array where the digits are written.
+     * @param start index of the first digit.
+     * @param value the number to write.
+     * @param width number of digits.
+     * @throws IllegalArgumentException if the value is negative or doesn't fit.
+     */
+    public static void putDigits(byte[] dst, int start, int value, int width)
+    {
+        if (value < 0)
+        {
+            throw new IllegalArgumentException("** error, can't write negative value " + value);
+        }
+        int remainder = value;
+        for (int i = start + width - 1; i >= start; i--)
+        {
+            dst[i] = (byte)('0' + remainder % 10);
+            remainder /= 10;
+        }
+        if (remainder != 0)
+        {
+            throw new IllegalArgumentException(
+                    String.format("** error, value %d is more than %d digits.", value, width));
+        }
+    }
+    
+    /**
+     * Writes a number as zero padded ASCII digits at the buffer's position.
+     * @param dst buffer where the digits are written.
+     * @param value the number to write.
+     * @param width number of digits.
+     * @throws IllegalArgumentException if the value is negative or doesn't fit.
+     */
+    public static void putDigits(ByteBuffer dst, int value, int width)
+    {
+        int start = dst.position();
+        if (dst.hasArray())
+        {
+            putDigits(dst.array(), dst.arrayOffset() + start, value, width);
+            dst.position(start + width);
+            return;
+        }
+        byte[] digits = new byte[width];
+        putDigits(digits, 0, value, width);
+        dst.put(digits);
+    }
+    
     public static String getByteRange(byte[] leader, int start, int end)
     {
         byte[] chars = Arrays.copyOfRange(leader, start, end);
@@ -16,6 +16,7 @@
 package instructions;
 
 import MARC.Record;
+import instructions.Parser.SyntaxError;
 import java.util.List;
 
 /**
@@ -28,10 +29,11 @@ public class AddTag extends Instruction
     private Record record;
     private String content;
     
-    public AddTag(List<String> tokens)
+    public AddTag(List<String> tokens) throws SyntaxError
     {
 
         this.tag  = tokens.remove(0);
+        this.marcTag = Instruction.parseTag(this.tag);
         this.verb = tokens.remove(0);
         switch (this.verb)
         {
@@ -57,6 +59,6 @@ public class AddTag extends Instruction
     @Override
     public boolean run() 
     {
-        return this.record.addTag(this.tag, this.content);
+        return this.record.addTag(this.marcTag, this.content);
     }
 }
@@ -16,6 +16,7 @@
 package instructions;
 
 import MARC.Record;
+import MARC.Tag;
 import java.util.List;
 import MARC.Utility;
 import instructions.Parser.SyntaxError;
@@ -38,6 +39,7 @@ public class AppendTag extends Instruction
     {
 
         this.tag      = tokens.remove(0);
+        this.marcTag  = Instruction.parseTag(this.tag);
         this.verb     = tokens.remove(0);
         StringBuilder sb = new StringBuilder();
         for (String token: tokens)
@@ -58,10 +60,18 @@ public class AppendTag extends Instruction
         }
     }
 
+    @Override
+    public Tag getGuardTag()
+    {
+        // A DirtyRecord counts the attempt as a change even without the tag,
+        // so only skip when records are always output.
+        return Environment.isOutputOnChangeOnly() ? null : this.marcTag;
+    }
+
     @Override
     public boolean run() 
     {
-        List<byte[]> bTagContents = this.record.getTagContent(this.tag);
+        List<byte[]> bTagContents = this.record.getTagContent(this.marcTag);
         List<byte[]> bNewTagContents = new ArrayList<>();
         byte[] bValue = this.value.getBytes();
         for (byte[] bArray: bTagContents)
@@ -79,7 +89,7 @@ public class AppendTag extends Instruction
             }
             bNewTagContents.add(finalBytes);
         }
-        return this.record.setTagContent(tag, bNewTagContents);
+        return this.record.setTagContent(this.marcTag, bNewTagContents);
     }
 
     @Override
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Andrew Nisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package instructions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Super class of the if instructions, which run the instructions of a then
+ * or an else clause. What the clauses need is worked out here, so the if 
+ * instructions only decide which clause runs.
+ * @author Andrew Nisbet
+ */
+abstract class Conditional extends Instruction
+{
+    protected final List<Instruction> trueInstructions  = new ArrayList<>();
+    protected final List<Instruction> falseInstructions = new ArrayList<>();
+
+    @Override
+    public boolean isPerRecord()
+    {
+        for (List<Instruction> clause: this.getClauses())
+        {
+            for (Instruction instruction: clause)
+            {
+                if (! instruction.isPerRecord()) return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isDeferred()
+    {
+        for (List<Instruction> clause: this.getClauses())
+        {
+            for (Instruction instruction: clause)
+            {
+                if (instruction.isDeferred()) return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean setFinalize()
+    {
+        boolean result = true;
+        for (List<Instruction> clause: this.getClauses())
+        {
+            for (Instruction instruction: clause)
+            {
+                result = instruction.setFinalize() && result;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void addURLTests(List<TestURL> tests)
+    {
+        for (List<Instruction> clause: this.getClauses())
+        {
+            for (Instruction instruction: clause)
+            {
+                instruction.addURLTests(tests);
+            }
+        }
+    }
+
+    @Override
+    public boolean addReferencedTags(BitSet tags)
+    {
+        boolean result = super.addReferencedTags(tags);
+        for (List<Instruction> clause: this.getClauses())
+        {
+            for (Instruction instruction: clause)
+            {
+                result = instruction.addReferencedTags(tags) && result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the then clause and the else clause, which may be empty.
+     */
+    private List<List<Instruction>> getClauses()
+    {
+        return Arrays.asList(this.trueInstructions, this.falseInstructions);
+    }
+}
@@ -16,6 +16,7 @@
 package instructions;
 
 import MARC.Record;
+import MARC.Tag;
 import instructions.Parser.SyntaxError;
 import java.util.List;
 
@@ -33,6 +34,7 @@ public class DeleteTag extends Instruction
     {
         this.matchString = "";
         this.tag  = tokens.remove(0);
+        this.marcTag = Instruction.parseTag(this.tag);
         this.verb = tokens.remove(0);
         switch (this.verb)
         {
@@ -60,14 +62,22 @@ public class DeleteTag extends Instruction
         this.record = record;
     }
 
+    @Override
+    public Tag getGuardTag()
+    {
+        // A DirtyRecord counts the attempt as a change even without the tag,
+        // so only skip when records are always output.
+        return Environment.isOutputOnChangeOnly() ? null : this.marcTag;
+    }
+
     @Override
     public boolean run() 
     {
         if (this.matchString.isEmpty())
         {
-            return this.record.removeTags(this.tag);
+            return this.record.removeTags(this.marcTag);
         }
-        return this.record.removeTags(this.tag, this.matchString);
+        return this.record.removeTags(this.marcTag, this.matchString);
     }
     
 }
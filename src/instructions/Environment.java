@@ -16,6 +16,7 @@
 package instructions;
 
 import java.util.HashMap;
+import utility.URLProbe;
 
 /**
  * Environment settings. The environment has some built-in variables;
@@ -23,6 +24,24 @@ import java.util.HashMap;
  * <li>debug</li>
  * <li>isStrict</li>
  * <li>outputOnChangeOnly</li>
+ * <li>loadAll</li>
+ * <li>memoryMapped</li>
+ * <li>threads</li>
+ * <li>unordered</li>
+ * <li>split</li>
+ * <li>start</li>
+ * <li>limit</li>
+ * <li>rejectFile</li>
+ * <li>urlThreads</li>
+ * <li>urlCache</li>
+ * <li>urlCacheTTL</li>
+ * <li>urlMode</li>
+ * <li>urlTimeout</li>
+ * <li>urlMaxBytes</li>
+ * <li>urlHostThreads</li>
+ * <li>urlHostRate</li>
+ * <li>urlHostFailures</li>
+ * <li>urlPrefetch</li>
  * <li>writtenRecords</li>
  * <li>printedRecords</li>
  * <li>marcRecordCount</li>
@@ -38,6 +57,24 @@ public class Environment
     private static boolean debug = false;
     private static String marcFile = "";
     private static boolean outputOnChangeOnly = false;
+    private static boolean loadAll = false;
+    private static boolean memoryMapped = false;
+    private static int threads = 0;
+    private static boolean unordered = false;
+    private static boolean split = false;
+    private static int start = 0;
+    private static int limit = -1;
+    private static String rejectFile = "";
+    private static int urlThreads = 8;
+    private static String urlCache = "";
+    private static int urlCacheTTL = 24;
+    private static URLProbe.Mode urlMode = URLProbe.Mode.BODY;
+    private static int urlTimeout = 30;
+    private static int urlMaxBytes = URLProbe.DEFAULT_MAX_BYTES;
+    private static int urlHostThreads = 4;
+    private static int urlHostRate = 10;
+    private static int urlHostFailures = 5;
+    private static boolean urlPrefetch = false;
     private static int writtenRecords = 0;
     private static int printedRecords = 0;
     private static int marcRecordCount = 0;
@@ -86,6 +123,189 @@ public class Environment
         return marcFile;
     }
 
+    /**
+     * @param aURLThreads most URLs checked at once.
+     */
+    public static void setURLThreads(int aURLThreads) 
+    {
+        urlThreads = aURLThreads;
+    }
+    
+    /**
+     * @return most URLs checked at once.
+     */
+    public static int getURLThreads()
+    {
+        return urlThreads;
+    }
+
+    /**
+     * @param urlCachePath file URL check results are kept in between runs, 
+     * or empty to keep them for this run only.
+     */
+    public static void setURLCache(String urlCachePath) 
+    {
+        urlCache = urlCachePath;
+    }
+    
+    /**
+     * @return file URL check results are kept in between runs, or empty for none.
+     */
+    public static String getURLCache()
+    {
+        return urlCache;
+    }
+
+    /**
+     * @param aURLCacheTTL hours a URL check result is used before the page 
+     * is checked again.
+     */
+    public static void setURLCacheTTL(int aURLCacheTTL) 
+    {
+        urlCacheTTL = aURLCacheTTL;
+    }
+    
+    /**
+     * @return hours a URL check result is used before the page is checked again.
+     */
+    public static int getURLCacheTTL()
+    {
+        return urlCacheTTL;
+    }
+
+    /**
+     * @param aURLMode what 'test url' asks of each link.
+     */
+    public static void setURLMode(URLProbe.Mode aURLMode) 
+    {
+        urlMode = aURLMode;
+    }
+    
+    /**
+     * @return what 'test url' asks of each link.
+     */
+    public static URLProbe.Mode getURLMode()
+    {
+        return urlMode;
+    }
+
+    /**
+     * @param aURLTimeout seconds to wait for a host to connect or send data.
+     */
+    public static void setURLTimeout(int aURLTimeout) 
+    {
+        urlTimeout = aURLTimeout;
+    }
+    
+    /**
+     * @return seconds to wait for a host to connect or send data.
+     */
+    public static int getURLTimeout()
+    {
+        return urlTimeout;
+    }
+
+    /**
+     * @param aURLMaxBytes most bytes of a page searched for the phrase.
+     */
+    public static void setURLMaxBytes(int aURLMaxBytes) 
+    {
+        urlMaxBytes = aURLMaxBytes;
+    }
+    
+    /**
+     * @return most bytes of a page searched for the phrase.
+     */
+    public static int getURLMaxBytes()
+    {
+        return urlMaxBytes;
+    }
+
+    /**
+     * @param aURLHostThreads most links on one host checked at once.
+     */
+    public static void setURLHostThreads(int aURLHostThreads) 
+    {
+        urlHostThreads = aURLHostThreads;
+    }
+    
+    /**
+     * @return most links on one host checked at once.
+     */
+    public static int getURLHostThreads()
+    {
+        return urlHostThreads;
+    }
+
+    /**
+     * @param aURLHostRate most checks of links on one host started each 
+     * second, or 0 for no limit.
+     */
+    public static void setURLHostRate(int aURLHostRate) 
+    {
+        urlHostRate = aURLHostRate;
+    }
+    
+    /**
+     * @return most checks of links on one host started each second, or 0 
+     * for no limit.
+     */
+    public static int getURLHostRate()
+    {
+        return urlHostRate;
+    }
+
+    /**
+     * @param aURLHostFailures failures in a row after which a host's links 
+     * are skipped for a while, or 0 to never skip them.
+     */
+    public static void setURLHostFailures(int aURLHostFailures) 
+    {
+        urlHostFailures = aURLHostFailures;
+    }
+    
+    /**
+     * @return failures in a row after which a host's links are skipped for 
+     * a while, or 0 to never skip them.
+     */
+    public static int getURLHostFailures()
+    {
+        return urlHostFailures;
+    }
+
+    /**
+     * @param aURLPrefetch true to check every record's links before the 
+     * records are run.
+     */
+    public static void setURLPrefetch(boolean aURLPrefetch) 
+    {
+        urlPrefetch = aURLPrefetch;
+    }
+    
+    /**
+     * @return true to check every record's links before the records are run.
+     */
+    public static boolean isURLPrefetch()
+    {
+        return urlPrefetch;
+    }
+
+    /**
+     * @param rejectFilePath file for malformed records, or empty for none.
+     */
+    public static void setRejectFile(String rejectFilePath) 
+    {
+        rejectFile = rejectFilePath;
+    }
+    
+    /**
+     * @return file for malformed records, or empty for none.
+     */
+    public static String getRejectFile()
+    {
+        return rejectFile;
+    }
+
     static void setOutputOnChangeOnly(boolean parseBoolean) 
     {
         outputOnChangeOnly = parseBoolean;
@@ -96,6 +316,119 @@ public class Environment
         return outputOnChangeOnly;
     }
 
+    static void setLoadAll(boolean parseBoolean) 
+    {
+        loadAll = parseBoolean;
+    }
+
+    /**
+     * @return true if all the records are to be read into memory before 
+     * instructions run, and false if records are streamed one at a time.
+     */
+    static boolean isLoadAll() 
+    {
+        return loadAll;
+    }
+
+    static void setMemoryMapped(boolean parseBoolean) 
+    {
+        memoryMapped = parseBoolean;
+    }
+
+    /**
+     * @return true if the MARC file is to be read through a memory map, and 
+     * false if it is read as a stream.
+     */
+    static boolean isMemoryMapped() 
+    {
+        return memoryMapped;
+    }
+
+    /**
+     * @param aThreads number of worker threads used to run instructions on 
+     * records, or 0 to process records on one thread.
+     */
+    public static void setThreads(int aThreads) 
+    {
+        threads = aThreads;
+    }
+
+    /**
+     * @return number of worker threads used to run instructions on records,
+     * 0 if records are processed on one thread.
+     */
+    public static int getThreads() 
+    {
+        return threads;
+    }
+
+    /**
+     * @param aUnordered true if records may be output in the order they 
+     * finish rather than the order they were read.
+     */
+    public static void setUnordered(boolean aUnordered) 
+    {
+        unordered = aUnordered;
+    }
+
+    /**
+     * @return true if records may be output in the order they finish, and
+     * false if they are output in the order they were read.
+     */
+    public static boolean isUnordered() 
+    {
+        return unordered;
+    }
+
+    /**
+     * @param aSplit true if worker threads read and decode ranges of the 
+     * file, rather than one thread reading every record.
+     */
+    public static void setSplit(boolean aSplit) 
+    {
+        split = aSplit;
+    }
+
+    /**
+     * @return true if worker threads read and decode ranges of the file.
+     */
+    public static boolean isSplit() 
+    {
+        return split;
+    }
+
+    /**
+     * @param aStart 0-based number of the first record to process.
+     */
+    public static void setStart(int aStart) 
+    {
+        start = aStart;
+    }
+
+    /**
+     * @return 0-based number of the first record to process.
+     */
+    public static int getStart() 
+    {
+        return start;
+    }
+
+    /**
+     * @param aLimit the most records to process, or -1 for all of them.
+     */
+    public static void setLimit(int aLimit) 
+    {
+        limit = aLimit;
+    }
+
+    /**
+     * @return the most records to process, or -1 for all of them.
+     */
+    public static int getLimit() 
+    {
+        return limit;
+    }
+
     static void incrementWrittenRecords() 
     {
         writtenRecords++;
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Andrew Nisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package instructions;
+
+import MARC.Record;
+import MARC.Tag;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled form of a run of instructions. Consecutive instructions that need
+ * the same tag, see {@link Instruction#getGuardTag()}, are grouped, and a
+ * group is skipped if the record doesn't have its tag. The test is a lookup
+ * in the record's tag bitmap, so a record without any of the tags the script
+ * works on costs one pass over its directory. Instructions still run in the
+ * order of the script.
+ * @author Andrew Nisbet
+ */
+class ExecutionPlan
+{
+    // Tag each group needs, or null if the group always runs.
+    private final Tag[] guards;
+    private final Instruction[][] groups;
+
+    /**
+     * Compiles a range of instructions.
+     * @param instructions list of instructions.
+     * @param from index of the first instruction in the plan.
+     * @param to index one past the last instruction in the plan.
+     */
+    ExecutionPlan(List<Instruction> instructions, int from, int to)
+    {
+        List<Tag> guardList = new ArrayList<>();
+        List<Instruction[]> groupList = new ArrayList<>();
+        int start = from;
+        while (start < to)
+        {
+            Tag guard = instructions.get(start).getGuardTag();
+            int end = start + 1;
+            while (end < to && ExecutionPlan.isSame(guard, instructions.get(end).getGuardTag()))
+            {
+                end++;
+            }
+            guardList.add(guard);
+            groupList.add(instructions.subList(start, end).toArray(new Instruction[end - start]));
+            start = end;
+        }
+        this.guards = guardList.toArray(new Tag[guardList.size()]);
+        this.groups = groupList.toArray(new Instruction[groupList.size()][]);
+    }
+
+    private static boolean isSame(Tag a, Tag b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Runs the plan on a record.
+     * @param r the record.
+     */
+    void run(Record r)
+    {
+        for (int g = 0; g < this.groups.length; g++)
+        {
+            Tag guard = this.guards[g];
+            if (guard != null && ! r.hasTag(guard))
+            {
+                if (Environment.isDebug())
+                {
+                    for (Instruction i: this.groups[g])
+                    {
+                        System.out.printf("fail: '%s'\n", i.toString());
+                    }
+                }
+                continue;
+            }
+            for (Instruction i: this.groups[g])
+            {
+                if (! i.isPerRecord())
+                {
+                    // Instructions that write or print see the finished record.
+                    r.finishPending();
+                }
+                i.setRecord(r);
+                if (! i.run() && Environment.isDebug())
+                {
+                    System.out.printf("fail: '%s'\n", i.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of groups in the plan.
+     */
+    int getGroupCount()
+    {
+        return this.groups.length;
+    }
+}
@@ -16,7 +16,10 @@
 package instructions;
 
 import MARC.Record;
+import MARC.RecordFilter;
+import MARC.Tag;
 import instructions.Parser.SyntaxError;
+import java.util.BitSet;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -97,6 +100,61 @@ public class If extends Instruction
         this.ifInstruction.setRecord(record);
     }
 
+    @Override
+    public Tag getGuardTag()
+    {
+        return this.ifInstruction.getGuardTag();
+    }
+
+    @Override
+    public boolean isPerRecord()
+    {
+        return this.ifInstruction.isPerRecord();
+    }
+
+    @Override
+    public boolean isDeferred()
+    {
+        return this.ifInstruction.isDeferred();
+    }
+
+    @Override
+    public void addURLTests(List<TestURL> tests)
+    {
+        this.ifInstruction.addURLTests(tests);
+    }
+
+    @Override
+    public boolean setFinalize()
+    {
+        return this.ifInstruction.setFinalize();
+    }
+
+    @Override
+    public boolean addReferencedTags(BitSet tags)
+    {
+        return this.ifInstruction.addReferencedTags(tags);
+    }
+
+    @Override
+    public RecordFilter getRecordFilter()
+    {
+        return this.ifInstruction.getRecordFilter();
+    }
+
+    /**
+     * @return the test as a test of the leader's bytes, or null if it isn't
+     * a test of a leader position.
+     */
+    RecordFilter getLeaderTest()
+    {
+        if (this.ifInstruction instanceof IfPosition)
+        {
+            return ((IfPosition)this.ifInstruction).getLeaderTest();
+        }
+        return null;
+    }
+
     @Override
     public boolean run() 
     {
@@ -19,7 +19,7 @@ import MARC.Content;
 import MARC.DirectoryEntry;
 import MARC.DirtyRecord;
 import MARC.Record;
-import java.util.ArrayList;
+import MARC.Tag;
 import java.util.List;
 
 /**
@@ -27,12 +27,10 @@ import java.util.List;
  * TODO implement in Parser, test.
  * @author anisbet
  */
-public class IfContains extends Instruction
+public class IfContains extends Conditional
 {
     private final String regex;
     private Record record;
-    private final List<Instruction> trueInstructions;
-    private final List<Instruction> falseInstructions;
     
     /**
      * Syntax: [tag>] if content == [regex] then [other commands]; else [other commands];
@@ -45,10 +43,8 @@ public class IfContains extends Instruction
             Parser.SyntaxError
     {
         this.tag = tokens.remove(0);
+        this.marcTag = Instruction.parseTag(this.tag);
         this.verb = tokens.remove(0);
-        // Create new list for finished instructions.
-        this.trueInstructions = new ArrayList<>();
-        this.falseInstructions= new ArrayList<>();
         tokens.remove(0); // This is just the keyword 'content' which we test for in the super class.
         tokens.remove(0); // This is just the keyword '==' which we test for in the super class.
         // This is the regex
@@ -91,7 +87,7 @@ public class IfContains extends Instruction
     public boolean run() 
     {
         // get the content of the tag and check for the value at the appointed test position.
-        List<DirectoryEntry> myTagEntries = this.record.getTags(this.tag);
+        List<DirectoryEntry> myTagEntries = this.record.getTags(this.marcTag);
         boolean result = false;
         for (DirectoryEntry de: myTagEntries)
         {
@@ -120,6 +116,13 @@ public class IfContains extends Instruction
         return result;
     }
 
+    @Override
+    public Tag getGuardTag()
+    {
+        // Without the tag there is no match and the else clause isn't used.
+        return this.marcTag;
+    }
+
     @Override
     public void setRecord(Record record)
     {
@@ -19,8 +19,10 @@ import MARC.Content;
 import MARC.DirectoryEntry;
 import MARC.DirtyRecord;
 import MARC.Leader;
+import MARC.PositionFilter;
 import MARC.Record;
-import java.util.ArrayList;
+import MARC.RecordFilter;
+import MARC.Tag;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -29,13 +31,12 @@ import java.util.logging.Logger;
  * If then test of a field from a MARC record.
  * @author Andrew Nisbet
  */
-public class IfPosition extends Instruction
+public class IfPosition extends Conditional
 {
     private int    leftSide;
     private String rightSide;
+    private final boolean isLeader;
     private Record record;
-    private final List<Instruction> trueInstructions;
-    private final List<Instruction> falseInstructions;
 
     /**
      * Instruction looks like '008 if 1 == 5 then 035 print'
@@ -50,10 +51,12 @@ public class IfPosition extends Instruction
         
         // we don't have to check any of these because that was done in the super class.
         this.tag = tokens.remove(0);
+        this.isLeader = this.tag.equalsIgnoreCase(Leader.TAG) || this.tag.equalsIgnoreCase(Parser.LEADER);
+        if (! this.isLeader)
+        {
+            this.marcTag = Instruction.parseTag(this.tag);
+        }
         this.verb= tokens.remove(0);
-        // Create new list for finished instructions.
-        this.trueInstructions = new ArrayList<>();
-        this.falseInstructions= new ArrayList<>();
         try
         {
             this.leftSide = Parser.isNumber(tokens.remove(0));
@@ -103,10 +106,9 @@ public class IfPosition extends Instruction
     public boolean run() 
     {
         boolean result = false;
-        if (this.tag.equalsIgnoreCase(Leader.TAG))
+        if (this.isLeader)
         {
-            Leader leader = this.record.getLeader();
-            if (this.rightSide.charAt(0) == leader.getLeaderString().charAt(this.leftSide))
+            if (this.record.getLeader().testPosition(this.leftSide, this.rightSide.charAt(0)))
             {
                 result = true;
                 // there may be no changes to the record, but we want the record to
@@ -120,7 +122,7 @@ public class IfPosition extends Instruction
         else
         {
             // get the content of the tag and check for the value at the appointed test position.
-            List<DirectoryEntry> myTagEntries = this.record.getTags(this.tag);
+            List<DirectoryEntry> myTagEntries = this.record.getTags(this.marcTag);
             for (DirectoryEntry de: myTagEntries)
             {
                 // find the value at the requested position of any of the tags .
@@ -157,6 +159,51 @@ public class IfPosition extends Instruction
         return result;
     }
 
+    @Override
+    public Tag getGuardTag()
+    {
+        // Without the tag there is no match, which only matters if there is an else clause.
+        return this.falseInstructions.isEmpty() ? this.marcTag : null;
+    }
+
+    @Override
+    public RecordFilter getRecordFilter()
+    {
+        // Records that fail the test only run the else clause.
+        return this.falseInstructions.isEmpty() ? this.getPositionTest() : null;
+    }
+
+    /**
+     * @return the test as a test of the leader's bytes, or null if it tests
+     * a field.
+     */
+    RecordFilter getLeaderTest()
+    {
+        if (this.isLeader)
+        {
+            return new PositionFilter(null, this.leftSide, this.rightSide.substring(0, 1));
+        }
+        return null;
+    }
+
+    /**
+     * @return the test as a test of the record's bytes, or null if it tests
+     * a data field, whose positions don't count bytes once decoded.
+     */
+    RecordFilter getPositionTest()
+    {
+        if (this.isLeader)
+        {
+            return this.getLeaderTest();
+        }
+        if (this.marcTag.getCode() < 10)
+        {
+            // Control fields like 008 are ASCII with no indicators.
+            return new PositionFilter(this.marcTag, this.leftSide, this.rightSide.substring(0, 1));
+        }
+        return null;
+    }
+
     @Override
     public void setRecord(Record record)
     {
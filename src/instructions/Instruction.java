@@ -5,7 +5,12 @@
  */
 package instructions;
 
+import MARC.MARCError;
 import MARC.Record;
+import MARC.RecordFilter;
+import MARC.Tag;
+import java.util.BitSet;
+import java.util.List;
 
 /**
  * Generic instruction that operates or tests some aspect of a MARC file.
@@ -16,6 +21,9 @@ public abstract class Instruction
 
     protected String tag;
     protected String verb;
+    // The field's tag for instructions that operate on fields, parsed once 
+    // from 'tag' when the script is read.
+    protected Tag marcTag;
 
     /**
      * Sets the Directory of the MARC record, which is the payload of the MARC
@@ -39,6 +47,95 @@ public abstract class Instruction
         return sb.toString();
     }
 
+    /**
+     * Tests if the instruction only depends on the record it is given, so 
+     * copies of it can run on different records at the same time. Instructions
+     * that write or print records, or keep state from one record to the next,
+     * must see each record in turn.
+     * @return true if the instruction works on one record at a time and 
+     * false otherwise.
+     */
+    public boolean isPerRecord()
+    {
+        return true;
+    }
+
+    /**
+     * Tests if the instruction leaves work running on another thread when it
+     * returns, to be finished with {@link Record#finishPending()} before the
+     * record is written or printed.
+     * @return true if the instruction may leave work pending and false otherwise.
+     */
+    public boolean isDeferred()
+    {
+        return false;
+    }
+
+    /**
+     * Adds the URL tests in this instruction, so their links can be checked
+     * before the records are run, see {@link TestURL#prefetch(Iterable, List)}.
+     * @param tests list the tests are added to.
+     */
+    public void addURLTests(List<TestURL> tests)
+    {
+    }
+
+    /**
+     * Gets the tag a record must have for the instruction to have any effect.
+     * Without it, running the instruction would change nothing and output
+     * nothing, so an {@link ExecutionPlan} can skip it.
+     * @return the tag, or null if the instruction must always run.
+     */
+    public Tag getGuardTag()
+    {
+        return null;
+    }
+
+    /**
+     * Adds the tags of the fields the instruction reads or changes, so the 
+     * fields of other tags needn't be decoded when records are read.
+     * @param tags tag numbers, add to these.
+     * @return false if the instruction needs every field of a record, say to
+     * print it, and true otherwise.
+     */
+    public boolean addReferencedTags(BitSet tags)
+    {
+        if (this.marcTag != null)
+        {
+            tags.set(this.marcTag.getCode());
+        }
+        return true;
+    }
+
+    /**
+     * Gets a test of a record's bytes that a record must pass for the 
+     * instruction to change it or select it for output, so the reader can 
+     * skip records that fail before they are decoded.
+     * @return the test, or null if the instruction may act on any record.
+     */
+    public RecordFilter getRecordFilter()
+    {
+        return null;
+    }
+
+    /**
+     * Converts a tag name from the script into a tag.
+     * @param name tag name like '856'.
+     * @return Tag.
+     * @throws instructions.Parser.SyntaxError if the name isn't a valid tag.
+     */
+    protected static Tag parseTag(String name) throws Parser.SyntaxError
+    {
+        try
+        {
+            return Tag.valueOf(name);
+        }
+        catch (MARCError | IllegalArgumentException e)
+        {
+            throw new Parser.SyntaxError(String.format("invalid tag '%s'", name));
+        }
+    }
+
     /**
      * @return true if the finalization method was successful and false otherwise.
      * @see WriteFileN
@@ -17,18 +17,37 @@ package instructions;
 
 import MARC.MARCFile;
 import MARC.Record;
+import MARC.RecordFilter;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Reads and executes instructions.
+ * 
+ * When worker threads are requested the records are run through a {@link Pipeline}.
+ * The leading instructions that only depend on the record they are given run 
+ * on the worker threads, each with its own copy of the instructions. The 
+ * remaining instructions, starting with the first that writes or prints 
+ * records, run on each record in turn and in the order the records were read,
+ * unless unordered output is requested.
  * @author Andrew
  */
 public class Interpreter 
 {
+    private final String commandFile;
     private final List<Instruction> instructionList;
+    // Number of leading instructions that can run on records in parallel.
+    private final int parallelCount;
+    
     public Interpreter(String commandFile)
     {
+        this.commandFile = commandFile;
         this.instructionList = new ArrayList<>();
         Parser parser = new Parser();
         if (! parser.parse(commandFile, this.instructionList))
@@ -38,41 +57,251 @@ public class Interpreter
                             commandFile));
             System.exit(4);
         }
+        this.parallelCount = Parser.getParallelCount(this.instructionList);
     }
     
     /** Sets the instructions used to modify or test the marc file.
      */
     public void runInstructions() 
     {
+        if (Environment.isURLPrefetch())
+        {
+            this.prefetchURLs();
+        }
         // Read through the instructions for pre-processor instructions.
         MARCFile marcFile = new MARCFile.Builder(Environment.getMarcFile())
             .debug(Environment.isDebug())
             .setOutputOnModifyOnly(Environment.isOutputOnChangeOnly())
             .setStrict(Environment.isStrict())
+            .setLoadAll(Environment.isLoadAll())
+            .setMemoryMapped(Environment.isMemoryMapped())
+            .setProjection(Parser.getReferencedTags(this.instructionList))
+            .setFilter(Parser.getRecordFilter(this.instructionList, Environment.isOutputOnChangeOnly()))
+            .setStart(Environment.getStart())
+            .setLimit(Environment.getLimit())
+            .setRejectFile(Environment.getRejectFile())
             .build();
-        for (Record r: marcFile.getRecords())
+        if (this.isParallel())
         {
-            for (Instruction i: instructionList)
+            List<ExecutionPlan> workerPlans = new ArrayList<>();
+            for (int t = 0; t < Environment.getThreads(); t++)
+            {
+                workerPlans.add(new ExecutionPlan(this.parseCopy(), 0, this.parallelCount));
+            }
+            ExecutionPlan writerPlan = new ExecutionPlan(this.instructionList, 
+                    this.parallelCount, this.instructionList.size());
+            if (this.isSplit())
             {
-                i.setRecord(r);
-                if (! i.run() && Environment.isDebug())
+                try
                 {
-                    System.out.printf("fail: '%s'\n", i.toString());
+                    new RangePipeline(marcFile, workerPlans, writerPlan).run();
+                }
+                catch (IOException e)
+                {
+                    Logger.getLogger(Interpreter.class.getName()).log(Level.SEVERE, null, e);
                 }
             }
+            else
+            {
+                new Pipeline(marcFile, workerPlans, writerPlan, Environment.isUnordered()).run();
+            }
+            marcFile.printSummary();
         }
-        // pass 2 to finalize any instructions that run at the end.
-        for (Record r: marcFile.getRecords())
+        else if (this.isDeferred())
         {
-            for (Instruction i: instructionList)
+            this.runDeferred(marcFile);
+        }
+        else
+        {
+            ExecutionPlan plan = new ExecutionPlan(this.instructionList, 0, this.instructionList.size());
+            for (Record r: marcFile.getRecords())
             {
-                if (! i.setFinalize() && Environment.isDebug())
-                {
-                    System.out.printf("failed to finalize object: '%s'\n", i.toString());
-                }
+                plan.run(r);
+            }
+        }
+        marcFile.close();
+        // pass 2 to finalize any instructions that run at the end. The records
+        // have already been read so this happens once per instruction.
+        for (Instruction i: instructionList)
+        {
+            if (! i.setFinalize() && Environment.isDebug())
+            {
+                System.out.printf("failed to finalize object: '%s'\n", i.toString());
             }
         }
         System.out.printf("Records printed %6d\n", Environment.getPrintedRecords());
         System.out.printf("Records written %6d\n", Environment.getWrittenRecords());
     }
+    
+    /**
+     * Checks the links the script's URL tests will ask about in a pass over
+     * the file before the records are run, see {@link TestURL#prefetch(Iterable, List)}.
+     * The pass only decodes the fields with links, drops the records the 
+     * script's filter rejects whether or not they are written, and leaves 
+     * reporting malformed records to the run.
+     */
+    private void prefetchURLs()
+    {
+        List<TestURL> tests = new ArrayList<>();
+        for (Instruction instruction: this.instructionList)
+        {
+            instruction.addURLTests(tests);
+        }
+        if (tests.isEmpty())
+        {
+            return;
+        }
+        BitSet tags = new BitSet();
+        for (TestURL test: tests)
+        {
+            test.addReferencedTags(tags);
+        }
+        MARCFile marcFile = new MARCFile.Builder(Environment.getMarcFile())
+            .debug(Environment.isDebug())
+            .setStrict(Environment.isStrict())
+            .setMemoryMapped(Environment.isMemoryMapped())
+            .setOutputOnModifyOnly(true)
+            .setProjection(tags)
+            .setFilter(Parser.getRecordFilter(this.instructionList, Environment.isOutputOnChangeOnly()))
+            .setStart(Environment.getStart())
+            .setLimit(Environment.getLimit())
+            .setQuiet(true)
+            .build();
+        int count = TestURL.prefetch(marcFile.getRecords(), tests);
+        if (Environment.isDebug())
+        {
+            System.out.printf("URLs prefetched %6d\n", count);
+        }
+    }
+    
+    /**
+     * Gets the script's tests of leader positions, for counting records with
+     * {@link MARCFile#scanLeaders(List)}.
+     * @return the tests in script order, empty if there are none.
+     */
+    public List<RecordFilter> getLeaderTests()
+    {
+        List<RecordFilter> tests = new ArrayList<>();
+        for (Instruction instruction: this.instructionList)
+        {
+            RecordFilter test = instruction instanceof If ? ((If)instruction).getLeaderTest() : null;
+            if (test != null)
+            {
+                tests.add(test);
+            }
+        }
+        return tests;
+    }
+    
+    /**
+     * Decides if the records can be processed in parallel.
+     * @return true if worker threads were requested and the script allows it,
+     * and false otherwise.
+     */
+    private boolean isParallel()
+    {
+        if (Environment.getThreads() < 1)
+        {
+            return false;
+        }
+        if (Environment.isLoadAll())
+        {
+            System.err.printf("** warning, load_all is set so the script may depend on "
+                    + "state across records, running on one thread.\n");
+            return false;
+        }
+        if (this.parallelCount == 0)
+        {
+            System.err.printf("** warning, the script's first instruction depends on the "
+                    + "records before it, running on one thread.\n");
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Decides if the per-record instructions should run ahead of the others
+     * on a single thread, see {@link #runDeferred(MARCFile)}.
+     * @return true if a per-record instruction leaves work running on 
+     * another thread, and false otherwise.
+     */
+    private boolean isDeferred()
+    {
+        if (Environment.isLoadAll())
+        {
+            return false;
+        }
+        for (int i = 0; i < this.parallelCount; i++)
+        {
+            if (this.instructionList.get(i).isDeferred())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Runs the instructions on this thread, with the per-record instructions 
+     * a number of records ahead of the rest, so the work they leave running 
+     * on other threads, like URL checks, overlaps. Records are still written
+     * in the order they were read.
+     * @param marcFile the file.
+     */
+    private void runDeferred(MARCFile marcFile)
+    {
+        ExecutionPlan perRecordPlan = new ExecutionPlan(this.instructionList, 0, this.parallelCount);
+        ExecutionPlan plan = new ExecutionPlan(this.instructionList, 
+                this.parallelCount, this.instructionList.size());
+        // Enough records in flight to keep every checking thread busy.
+        int window = 2 * Environment.getURLThreads();
+        Deque<Record> waiting = new ArrayDeque<>();
+        for (Record r: marcFile.getRecords())
+        {
+            perRecordPlan.run(r);
+            waiting.add(r);
+            if (waiting.size() > window)
+            {
+                Record next = waiting.remove();
+                plan.run(next);
+                next.finishPending();
+            }
+        }
+        for (Record r: waiting)
+        {
+            plan.run(r);
+            r.finishPending();
+        }
+    }
+    
+    /**
+     * Decides if the worker threads should read the file in ranges.
+     * @return true if requested and a range of records wasn't, and false otherwise.
+     */
+    private boolean isSplit()
+    {
+        if (! Environment.isSplit())
+        {
+            return false;
+        }
+        if (Environment.getStart() > 0 || Environment.getLimit() >= 0)
+        {
+            System.err.printf("** warning, a range of records was requested, "
+                    + "reading the file on one thread.\n");
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Parses another copy of the instructions for a worker thread. Parsing 
+     * sets the environment, so copies are parsed before any worker starts.
+     * @return list of instructions.
+     */
+    private List<Instruction> parseCopy()
+    {
+        List<Instruction> copy = new ArrayList<>();
+        new Parser(false).parse(this.commandFile, copy);
+        return copy;
+    }
 }
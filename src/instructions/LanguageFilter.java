@@ -16,8 +16,12 @@
 package instructions;
 
 import MARC.DirtyRecord;
+import MARC.PositionFilter;
 import MARC.Record;
+import MARC.RecordFilter;
+import MARC.Tag;
 import instructions.Parser.SyntaxError;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -61,6 +65,20 @@ public class LanguageFilter extends Instruction
         this.record = record;
     }
 
+    @Override
+    public boolean addReferencedTags(BitSet tags)
+    {
+        // The language is in the fixed-length data elements.
+        tags.set(Tag.valueOf("008").getCode());
+        return true;
+    }
+
+    @Override
+    public RecordFilter getRecordFilter()
+    {
+        return new PositionFilter(Tag.valueOf("008"), 35, this.predicate);
+    }
+
     @Override
     public boolean run() 
     {
@@ -15,12 +15,15 @@
  */
 package instructions;
 
+import MARC.RecordFilter;
+import MARC.Tag;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -223,6 +226,118 @@ public class Parser
         return instruction;
     }
     
+    /**
+     * Computes the tags whose fields the instructions can read or change. 
+     * Fields with other tags only need to be copied, not decoded.
+     * @param instructions the parsed instructions.
+     * @return tag numbers of the fields the instructions use, or null if an
+     * instruction needs every field of a record.
+     */
+    public static BitSet getReferencedTags(List<Instruction> instructions)
+    {
+        BitSet tags = new BitSet(Tag.MAX_TAG + 1);
+        for (Instruction instruction: instructions)
+        {
+            if (! instruction.addReferencedTags(tags))
+            {
+                return null;
+            }
+        }
+        return tags;
+    }
+    
+    /**
+     * Counts the leading instructions that can run on many records at once,
+     * see {@link Instruction#isPerRecord()}. The first instruction that
+     * depends on the records before it, like one that writes or prints, and
+     * every instruction after it must see the records in turn.
+     * @param instructions the parsed instructions.
+     * @return number of instructions from the start of the list that only 
+     * depend on the record they are given.
+     */
+    public static int getParallelCount(List<Instruction> instructions)
+    {
+        int count = 0;
+        while (count < instructions.size() && instructions.get(count).isPerRecord())
+        {
+            count++;
+        }
+        return count;
+    }
+    
+    /**
+     * Finds a test that selects the records the instructions can act on, so
+     * the reader can skip the others without decoding them. When only 
+     * modified records are output and the only instructions other than 
+     * variables and writes are a single language filter, the filter selects
+     * the records output, see the Readme. Otherwise, if every instruction
+     * other than variables and writes is a test of a position in the leader
+     * or a control field like 008 without an else clause, a record that fails
+     * all the tests is left as it was read.
+     * @param instructions the parsed instructions.
+     * @param isOutputModifiedOnly true if only modified records are output.
+     * @return the test, or null if every record must be decoded.
+     */
+    public static RecordFilter getRecordFilter(List<Instruction> instructions, 
+            boolean isOutputModifiedOnly)
+    {
+        Instruction languageFilter = null;
+        int others = 0;
+        for (Instruction instruction: instructions)
+        {
+            if (instruction instanceof Variable || instruction instanceof WriteFile)
+            {
+                continue;
+            }
+            if (instruction instanceof LanguageFilter && languageFilter == null)
+            {
+                languageFilter = instruction;
+            }
+            else
+            {
+                // An edit or print could select or show a record the filter rejects.
+                others++;
+            }
+        }
+        if (isOutputModifiedOnly && languageFilter != null && others == 0)
+        {
+            return languageFilter.getRecordFilter();
+        }
+        List<RecordFilter> tests = new ArrayList<>();
+        for (Instruction instruction: instructions)
+        {
+            if (instruction instanceof Variable || instruction instanceof WriteFile)
+            {
+                continue;
+            }
+            RecordFilter test = instruction instanceof If ? instruction.getRecordFilter() : null;
+            if (test == null)
+            {
+                return null;
+            }
+            tests.add(test);
+        }
+        if (tests.isEmpty())
+        {
+            return null;
+        }
+        if (tests.size() == 1)
+        {
+            return tests.get(0);
+        }
+        return (recordBytes) -> 
+        {
+            for (RecordFilter test: tests)
+            {
+                if (test.accept(recordBytes))
+                {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+    
     /**
      * Tests if the argument is a number.
      * @param n number to test.
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2016 Andrew.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package instructions;
+
+import MARC.MARCFile;
+import MARC.Record;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs instructions on the records of a MARC file in three stages. A reader
+ * thread reads the bytes of each record from the file, a pool of worker threads
+ * decode the records and run the instructions that only need the record, and
+ * the calling thread runs the remaining instructions, the ones that write or
+ * print records, on each record in the order they were read, or the order
+ * they finish if output is unordered.
+ *
+ * The stages are connected by fixed size ring buffers. A stage that gets
+ * ahead waits for the next one, so no more than a fixed number of records are
+ * in memory at once and throughput is that of the slowest stage.
+ * @author Andrew
+ */
+class Pipeline
+{
+    // Records in flight per worker thread.
+    private final static int RECORDS_PER_THREAD = 16;
+    // Handed to a worker to tell it there are no more records.
+    private final static Frame END = new Frame(-1L, null);
+    private final MARCFile marcFile;
+    private final List<ExecutionPlan> workerPlans;
+    private final ExecutionPlan writerPlan;
+    private final boolean isUnordered;
+    private final int capacity;
+    // Reader to workers.
+    private final BlockingQueue<Frame> frames;
+    // Workers to the writer, indexed by read order, or finish order if unordered.
+    private final AtomicReferenceArray<Record> finished;
+    // One permit for each record that may be in flight.
+    private final Semaphore permits;
+    private final AtomicLong finishCount;
+    private final AtomicReference<Throwable> failure;
+    private final Thread writer;
+    private volatile boolean isReadDone;
+    private volatile long readCount;
+
+    /**
+     * Record bytes and their position in the file.
+     */
+    private static class Frame
+    {
+        private final long sequence;
+        private final ByteBuffer bytes;
+
+        Frame(long sequence, ByteBuffer bytes)
+        {
+            this.sequence = sequence;
+            this.bytes    = bytes;
+        }
+    }
+
+    /**
+     * Creates a pipeline.
+     * @param marcFile file to read.
+     * @param workerPlans the per-record instructions, a separate copy for 
+     * each worker thread.
+     * @param writerPlan the remaining instructions, run by the writer stage.
+     * @param isUnordered true if the writer stage may take records in the
+     * order they finish rather than the order they were read.
+     */
+    Pipeline(MARCFile marcFile, List<ExecutionPlan> workerPlans, ExecutionPlan writerPlan, 
+            boolean isUnordered)
+    {
+        this.marcFile           = marcFile;
+        this.workerPlans        = workerPlans;
+        this.writerPlan         = writerPlan;
+        this.isUnordered        = isUnordered;
+        this.capacity           = workerPlans.size() * RECORDS_PER_THREAD;
+        this.frames             = new ArrayBlockingQueue<>(this.capacity);
+        this.finished           = new AtomicReferenceArray<>(this.capacity);
+        this.permits            = new Semaphore(this.capacity);
+        this.finishCount        = new AtomicLong();
+        this.failure            = new AtomicReference<>();
+        this.writer             = Thread.currentThread();
+        this.isReadDone         = false;
+        this.readCount          = 0L;
+    }
+
+    /**
+     * Starts the reader and worker threads and runs the writer stage on this
+     * thread, returning once every record has been through all the stages.
+     */
+    void run()
+    {
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(this::read, "marc-reader"));
+        for (int i = 0; i < this.workerPlans.size(); i++)
+        {
+            ExecutionPlan plan = this.workerPlans.get(i);
+            threads.add(new Thread(() -> this.work(plan), "marc-worker-" + i));
+        }
+        for (Thread thread: threads)
+        {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try
+        {
+            this.write();
+        }
+        finally
+        {
+            for (Thread thread: threads)
+            {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reader stage, reads the bytes of each record and hands them to the workers.
+     */
+    private void read()
+    {
+        long sequence = 0L;
+        try
+        {
+            for (ByteBuffer bytes: this.marcFile.getRecordBytes())
+            {
+                this.permits.acquire();
+                this.frames.put(new Frame(sequence++, bytes));
+            }
+            this.readCount  = sequence;
+            this.isReadDone = true;
+            LockSupport.unpark(this.writer);
+            for (int i = 0; i < this.workerPlans.size(); i++)
+            {
+                this.frames.put(END);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // The writer has stopped.
+        }
+        catch (RuntimeException | Error e)
+        {
+            this.fail(e);
+        }
+    }
+
+    /**
+     * Worker stage, decodes records and runs the per-record instructions.
+     * @param plan this worker's copy of the instructions.
+     */
+    private void work(ExecutionPlan plan)
+    {
+        try
+        {
+            Frame frame;
+            while ((frame = this.frames.take()) != END)
+            {
+                Record record = this.marcFile.decode(frame.bytes);
+                plan.run(record);
+                long index = this.isUnordered ? this.finishCount.getAndIncrement() : frame.sequence;
+                this.finished.set((int)(index % this.capacity), record);
+                LockSupport.unpark(this.writer);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // The writer has stopped.
+        }
+        catch (RuntimeException | Error e)
+        {
+            this.fail(e);
+        }
+    }
+
+    /**
+     * Writer stage, runs the remaining instructions on each finished record.
+     */
+    private void write()
+    {
+        for (long next = 0L; ; next++)
+        {
+            int slot = (int)(next % this.capacity);
+            Record record;
+            while ((record = this.finished.get(slot)) == null)
+            {
+                Throwable e = this.failure.get();
+                if (e instanceof RuntimeException)
+                {
+                    throw (RuntimeException)e;
+                }
+                if (e instanceof Error)
+                {
+                    throw (Error)e;
+                }
+                if (this.isReadDone && next >= this.readCount)
+                {
+                    return;
+                }
+                LockSupport.park(this);
+            }
+            this.finished.set(slot, null);
+            this.writerPlan.run(record);
+            record.finishPending();
+            this.permits.release();
+        }
+    }
+
+    /**
+     * Records the first failure of a reader or worker and wakes the writer,
+     * which throws it.
+     * @param e the exception or error.
+     */
+    private void fail(Throwable e)
+    {
+        this.failure.compareAndSet(null, e);
+        LockSupport.unpark(this.writer);
+    }
+}
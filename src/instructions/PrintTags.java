@@ -18,6 +18,7 @@ package instructions;
 import MARC.DirectoryEntry;
 import MARC.Record;
 import instructions.Parser.SyntaxError;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -58,6 +59,7 @@ public class PrintTags extends Instruction
                 break;
             default:
                 this.printType = PrintType.tag;
+                this.marcTag = Instruction.parseTag(this.tag);
                 break;
         }
     }
@@ -68,6 +70,19 @@ public class PrintTags extends Instruction
         this.record = record;
     }
 
+    @Override
+    public boolean isPerRecord()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean addReferencedTags(BitSet tags)
+    {
+        // Printing the record prints every field.
+        return this.printType != PrintType.record && super.addReferencedTags(tags);
+    }
+
     @Override
     public boolean run() 
     {
@@ -82,7 +97,7 @@ public class PrintTags extends Instruction
                 break;
             default:
                 StringBuilder sb = new StringBuilder();
-                for (DirectoryEntry de: this.record.getTags(this.tag))
+                for (DirectoryEntry de: this.record.getTags(this.marcTag))
                 {
                     sb.append(de.getContent().toString()).append("\n");
                 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Andrew.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package instructions;
+
+import MARC.MARCFile;
+import MARC.Record;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs instructions on the records of a MARC file by splitting the file into
+ * ranges of bytes. Each range is read, framed into records and decoded on a
+ * thread of a fork-join pool, and the per-record instructions run on its 
+ * records there. The calling thread runs the remaining instructions on the 
+ * records of each range in file order.
+ * 
+ * A range finds its first record by searching for a record terminator 
+ * followed by a plausible leader, so no thread reads the whole file. The 
+ * calling thread checks that each range starts where the one before it ended,
+ * and reads a range again if it doesn't. Only a fixed number of ranges are in
+ * memory at once.
+ * @author Andrew
+ */
+class RangePipeline
+{
+    // Bytes of the file in each range.
+    private final static long RANGE_SIZE = 8L * 1024L * 1024L;
+    // Ranges in flight per worker thread.
+    private final static int RANGES_PER_THREAD = 2;
+    private final MARCFile marcFile;
+    // Copies of the per-record instructions, one for each running range.
+    private final BlockingQueue<ExecutionPlan> workerPlans;
+    private final ExecutionPlan writerPlan;
+    private final int threads;
+
+    /**
+     * Records of a range, decoded and run through the per-record instructions.
+     */
+    private static class DecodedRange
+    {
+        private final MARCFile.Range range;
+        private final List<Record> records;
+
+        DecodedRange(MARCFile.Range range, List<Record> records)
+        {
+            this.range   = range;
+            this.records = records;
+        }
+    }
+
+    /**
+     * Creates a range pipeline.
+     * @param marcFile file to read.
+     * @param workerPlans the per-record instructions, a separate copy for 
+     * each worker thread.
+     * @param writerPlan the remaining instructions, run on the calling thread.
+     */
+    RangePipeline(MARCFile marcFile, List<ExecutionPlan> workerPlans, ExecutionPlan writerPlan)
+    {
+        this.marcFile    = marcFile;
+        this.workerPlans = new ArrayBlockingQueue<>(workerPlans.size(), false, workerPlans);
+        this.writerPlan  = writerPlan;
+        this.threads     = workerPlans.size();
+    }
+
+    /**
+     * Decodes the ranges on the pool and runs the writer stage on this thread,
+     * returning once every record has been through all the instructions.
+     * @throws IOException if the file can't be read.
+     */
+    void run() throws IOException
+    {
+        long size = this.marcFile.getFileSize();
+        int rangeCount = (int)((size + RANGE_SIZE - 1) / RANGE_SIZE);
+        ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try
+        {
+            Deque<ForkJoinTask<DecodedRange>> inFlight = new ArrayDeque<>();
+            int submitted = 0;
+            // Where the next range's first record must start.
+            long expected = 0L;
+            for (int r = 0; r < rangeCount; r++)
+            {
+                while (submitted < rangeCount && inFlight.size() < this.threads * RANGES_PER_THREAD)
+                {
+                    long from = submitted * RANGE_SIZE;
+                    long to   = Math.min(from + RANGE_SIZE, size);
+                    inFlight.add(pool.submit(() -> this.decode(from, to, from == 0L)));
+                    submitted++;
+                }
+                DecodedRange decoded = inFlight.remove().join();
+                long to = Math.min((r + 1) * RANGE_SIZE, size);
+                if (expected >= to)
+                {
+                    // The last record of an earlier range runs past this one.
+                    continue;
+                }
+                if (decoded.range.getStart() != expected)
+                {
+                    System.err.printf("** warning, record at byte %d wasn't found from byte %d, "
+                            + "reading from the end of the previous record.\n", 
+                            expected, r * RANGE_SIZE);
+                    decoded = this.decode(expected, to, true);
+                }
+                this.marcFile.reject(decoded.range);
+                for (Record record: decoded.records)
+                {
+                    this.writerPlan.run(record);
+                    record.finishPending();
+                }
+                expected = decoded.range.getEnd();
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads and decodes the records that start in a range of the file, and 
+     * runs the per-record instructions on them.
+     * @param from file position to start at.
+     * @param to records that start at or after this position belong to the next range.
+     * @param isRecordStart true if a record starts at 'from'.
+     * @return the decoded records.
+     * @throws IOException if the file can't be read.
+     */
+    private DecodedRange decode(long from, long to, boolean isRecordStart) throws IOException
+    {
+        MARCFile.Range range = this.marcFile.readRange(from, to, isRecordStart);
+        List<Record> records = new ArrayList<>(range.getRecords().size());
+        ExecutionPlan plan;
+        try
+        {
+            plan = this.workerPlans.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("** error, interrupted while decoding records.", e);
+        }
+        try
+        {
+            for (ByteBuffer bytes: range.getRecords())
+            {
+                Record record = this.marcFile.decode(bytes);
+                plan.run(record);
+                records.add(record);
+            }
+        }
+        finally
+        {
+            this.workerPlans.add(plan);
+        }
+        return new DecodedRange(range, records);
+    }
+}
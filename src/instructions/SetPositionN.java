@@ -16,6 +16,7 @@
 package instructions;
 
 import MARC.Record;
+import MARC.Tag;
 import instructions.Parser.SyntaxError;
 import java.util.List;
 
@@ -35,6 +36,7 @@ class SetPositionN extends Instruction
     public SetPositionN(List<String> tokens) throws SyntaxError 
     {
         this.tag          = tokens.remove(0);
+        this.marcTag      = Instruction.parseTag(this.tag);
         this.verb         = tokens.remove(0);
         //                             6     =  o
         // the predicate looks like position = value
@@ -50,6 +52,13 @@ class SetPositionN extends Instruction
         }
     }  
 
+    @Override
+    public Tag getGuardTag()
+    {
+        // There is no field to set without the tag.
+        return this.marcTag;
+    }
+
     @Override
     public boolean run() 
     {
@@ -65,13 +74,13 @@ class SetPositionN extends Instruction
         byte[] content = this.entry.remove(0);
         content[this.position] = this.newValue.getBytes()[0];
         this.entry.add(0, content);
-        return this.record.setTagContent(tag, this.entry);
+        return this.record.setTagContent(this.marcTag, this.entry);
     }
 
     @Override
     public void setRecord(Record record) 
     {
         this.record = record;
-        this.entry = this.record.getTagContent(tag);
+        this.entry = this.record.getTagContent(this.marcTag);
     }  
 }
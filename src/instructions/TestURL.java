@@ -18,20 +18,42 @@ package instructions;
 import MARC.DirectoryEntry;
 import MARC.DirtyRecord;
 import MARC.Record;
+import MARC.Tag;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import utility.URLTester;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import utility.HostScheduler;
+import utility.LinkChecker;
+import utility.URLCache;
+import utility.URLProbe;
 
 /**
- *
+ * Tests the URLs in a record's 856 fields. Records with a URL whose page 
+ * doesn't contain the predicate, say "404 not found", are valid, and records
+ * whose pages all contain it are reported. With url_mode set to head or 
+ * status only the status of each link is checked, and records whose links
+ * all answer with an error are reported, see {@link URLProbe}. The pages are
+ * fetched on the threads of a {@link LinkChecker} while records carry on, and
+ * each record waits for its checks before it's written. Results are cached, 
+ * see {@link URLCache}, and saved at the end of the run if there is a cache file.
  * @author anisbet
  */
 public class TestURL extends Instruction
 {
+    // Shared by all copies, created the first time a URL is checked.
+    private static LinkChecker checker;
     private final String predicate;
     private Record record;
     public TestURL(List<String> tokens) throws Parser.SyntaxError
     {
         this.tag        = tokens.remove(0);
+        this.marcTag    = Instruction.parseTag(this.tag);
         this.verb       = tokens.remove(0);
         String testType = tokens.remove(0);
         this.predicate  = tokens.remove(0).replace('"', ' ').trim();
@@ -43,27 +65,204 @@ public class TestURL extends Instruction
         this.record = record;
     }
 
+    @Override
+    public boolean addReferencedTags(BitSet tags)
+    {
+        // Failures are reported with the record's TCN.
+        tags.set(Tag.valueOf("035").getCode());
+        return super.addReferencedTags(tags);
+    }
+
+    @Override
+    public boolean isDeferred()
+    {
+        return true;
+    }
+
+    @Override
+    public void addURLTests(List<TestURL> tests)
+    {
+        tests.add(this);
+    }
+
+    /**
+     * Starts checking the record's URLs on the shared {@link LinkChecker} and
+     * leaves a step on the record that applies the result once the checks 
+     * are done, see {@link Record#finishPending()}. The record can go on 
+     * through the per-record instructions while its links are fetched.
+     * @return true, the result isn't known until the checks are done.
+     */
     @Override
     public boolean run()
     {
-        List<DirectoryEntry> urls = this.record.getTags(this.tag);
+        List<DirectoryEntry> urls = this.record.getTags(this.marcTag);
+        LinkChecker checker = TestURL.getChecker();
+        List<Future<LinkChecker.Outcome>> checks = new ArrayList<>(urls.size());
         for (DirectoryEntry de: urls)
         {
             String url = de.getContent().extractSubfield('u');
-            URLTester urlTester = new URLTester(url);
+            checks.add(checker.contains(url, this.predicate));
+        }
+        Record r = this.record;
+        r.addPending(() -> this.apply(r, checks));
+        return true;
+    }
+
+    /**
+     * Waits for the checks of a record's URLs and applies the result. A URL
+     * that was skipped because its host keeps failing is reported, and
+     * treated like a URL that couldn't be reached. In debug mode a failed
+     * test is reported here, as run() doesn't know the result.
+     * @param record the record.
+     * @param checks whether each URL's page contained the predicate.
+     */
+    private void apply(Record record, List<Future<LinkChecker.Outcome>> checks)
+    {
+        boolean isValid = false;
+        for (Future<LinkChecker.Outcome> check: checks)
+        {
+            LinkChecker.Outcome outcome;
+            try
+            {
+                outcome = check.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (ExecutionException e)
+            {
+                Logger.getLogger(TestURL.class.getName()).log(Level.SEVERE, null, e);
+                continue;
+            }
+            if (outcome == LinkChecker.Outcome.SKIPPED)
+            {
+                System.err.printf("** URL test skipped on TCN '%s', the host is failing\n", record.getTCN());
+            }
             // This is a little backwards, URL are expected to be valid if they
             // don't find the predicate in the page's content.
-            if (! urlTester.search(this.predicate))
+            if (outcome != LinkChecker.Outcome.FOUND)
+            {
+                isValid = true;
+            }
+        }
+        if (! isValid)
+        {
+            System.err.printf("** URL test failed on TCN '%s'\n", record.getTCN());
+            if (Environment.isDebug())
+            {
+                System.out.printf("fail: '%s'\n", this.toString());
+            }
+        }
+        else if (Environment.isOutputOnChangeOnly() && record instanceof DirtyRecord)
+        {
+            // If no changes and doesn't match on say a filter selection skip it.
+            ((DirtyRecord)record).touch(); 
+        }
+    }
+
+    /**
+     * Checks the links of every record before the records are run. Each
+     * link is checked once however many records have it, and all the checks
+     * run at the same time within the checker's limits. The answers are kept
+     * by the checker, so when the records are run the tests find them 
+     * waiting rather than fetching pages.
+     * @param records the records, which only need the fields the tests use.
+     * @param tests the script's URL tests.
+     * @return number of different links checked.
+     */
+    static int prefetch(Iterable<Record> records, List<TestURL> tests)
+    {
+        LinkChecker checker = TestURL.getChecker();
+        List<Future<LinkChecker.Outcome>> checks = new ArrayList<>();
+        for (Record record: records)
+        {
+            for (TestURL test: tests)
             {
-                if (Environment.isOutputOnChangeOnly() && this.record instanceof DirtyRecord)
+                for (DirectoryEntry de: record.getTags(test.marcTag))
                 {
-                    // If no changes and doesn't match on say a filter selection skip it.
-                    ((DirtyRecord)this.record).touch(); 
+                    String url = de.getContent().extractSubfield('u');
+                    Future<LinkChecker.Outcome> check = checker.prefetch(url, test.predicate);
+                    if (check != null)
+                    {
+                        checks.add(check);
+                    }
                 }
-                return true;
             }
         }
-        System.err.printf("** URL test failed on TCN '%s'\n", this.record.getTCN());
-        return false;
+        for (Future<LinkChecker.Outcome> check: checks)
+        {
+            try
+            {
+                check.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (ExecutionException e)
+            {
+                Logger.getLogger(TestURL.class.getName()).log(Level.SEVERE, null, e);
+            }
+        }
+        return checks.size();
+    }
+
+    /**
+     * Gets the checker shared by every copy of the instruction, so the limit
+     * on checks at once applies to the whole run.
+     * @return the checker.
+     */
+    private static synchronized LinkChecker getChecker()
+    {
+        if (checker == null)
+        {
+            URLCache cache = new URLCache(Environment.getURLCache(),
+                    TimeUnit.HOURS.toMillis(Environment.getURLCacheTTL()), URLCache.DEFAULT_SIZE);
+            try
+            {
+                cache.load();
+            }
+            catch (IOException e)
+            {
+                Logger.getLogger(TestURL.class.getName()).log(Level.SEVERE, null, e);
+            }
+            URLProbe probe = new URLProbe(Environment.getURLMode(),
+                    (int)TimeUnit.SECONDS.toMillis(Environment.getURLTimeout()), Environment.getURLMaxBytes());
+            HostScheduler hosts = new HostScheduler(Environment.getURLHostThreads(),
+                    Environment.getURLHostRate(), Environment.getURLHostFailures(), HostScheduler.DEFAULT_COOLDOWN);
+            checker = new LinkChecker(Environment.getURLThreads(), cache, probe, hosts);
+        }
+        return checker;
+    }
+
+    /**
+     * Saves the results of the run's checks to the cache file, if there is one.
+     * @return true if the results were saved or there is nothing to save.
+     */
+    @Override
+    public boolean setFinalize()
+    {
+        LinkChecker shared;
+        synchronized (TestURL.class)
+        {
+            shared = checker;
+        }
+        if (shared == null)
+        {
+            return true;
+        }
+        try
+        {
+            shared.getCache().save();
+            return true;
+        }
+        catch (IOException e)
+        {
+            Logger.getLogger(TestURL.class.getName()).log(Level.SEVERE, null, e);
+            return false;
+        }
     }
 }
@@ -16,6 +16,8 @@
 package instructions;
 
 import MARC.Record;
+import MARC.Tag;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -58,9 +60,45 @@ class Tester extends Instruction
         this.instruction.setRecord(record);
     }
 
+    @Override
+    public Tag getGuardTag()
+    {
+        return this.instruction.getGuardTag();
+    }
+
+    @Override
+    public boolean isPerRecord()
+    {
+        return this.instruction.isPerRecord();
+    }
+
+    @Override
+    public boolean isDeferred()
+    {
+        return this.instruction.isDeferred();
+    }
+
+    @Override
+    public void addURLTests(List<TestURL> tests)
+    {
+        this.instruction.addURLTests(tests);
+    }
+
+    @Override
+    public boolean addReferencedTags(BitSet tags)
+    {
+        return this.instruction.addReferencedTags(tags);
+    }
+
     @Override
     public boolean run()
     {
         return this.instruction.run();
     }
+
+    @Override
+    public boolean setFinalize()
+    {
+        return this.instruction.setFinalize();
+    }
 }
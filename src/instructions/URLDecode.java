@@ -18,9 +18,11 @@ package instructions;
 import MARC.DirectoryEntry;
 import MARC.DirtyRecord;
 import MARC.Record;
+import MARC.Tag;
 import instructions.Parser.SyntaxError;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -40,6 +42,7 @@ public class URLDecode extends Instruction
             throws SyntaxError
     {
         this.tag  = tokens.remove(0);
+        this.marcTag = Instruction.parseTag(this.tag);
         this.verb = tokens.remove(0);
 //        Syntax: 856 decode subfield u
         String token = tokens.remove(0);
@@ -56,10 +59,18 @@ public class URLDecode extends Instruction
         this.record = record;
     }
 
+    @Override
+    public boolean addReferencedTags(BitSet tags)
+    {
+        // Failures are reported with the record's TCN.
+        tags.set(Tag.valueOf("035").getCode());
+        return super.addReferencedTags(tags);
+    }
+
     @Override
     public boolean run()
     {
-        List<DirectoryEntry> urls = this.record.getTags(this.tag);
+        List<DirectoryEntry> urls = this.record.getTags(this.marcTag);
         for (DirectoryEntry de: urls)
         {
             String url = de.getContent().extractSubfield(this.subfield);
@@ -19,6 +19,7 @@ import MARC.Record;
 import instructions.Parser.SyntaxError;
 import java.util.HashMap;
 import java.util.List;
+import utility.URLProbe;
 
 /**
  *
@@ -48,18 +49,89 @@ class Variable extends Instruction
             case "output_modified_only":
                 Environment.setOutputOnChangeOnly(Boolean.parseBoolean(variableValue));
                 break;
+            case "load_all":
+                Environment.setLoadAll(Boolean.parseBoolean(variableValue));
+                break;
+            case "memory_map":
+                Environment.setMemoryMapped(Boolean.parseBoolean(variableValue));
+                break;
             case "strict":
                 Environment.setStrict(Boolean.parseBoolean(variableValue));
                 break;
             case "marc_file":
                 Environment.setMarcFile(variableValue);
                 break;
+            case "reject_file":
+                Environment.setRejectFile(variableValue);
+                break;
+            case "url_threads":
+                Environment.setURLThreads(Variable.parseNumber(variableValue, 1, "threads"));
+                break;
+            case "url_cache":
+                Environment.setURLCache(variableValue);
+                break;
+            case "url_cache_ttl":
+                Environment.setURLCacheTTL(Variable.parseNumber(variableValue, 0, "hours"));
+                break;
+            case "url_mode":
+                try
+                {
+                    Environment.setURLMode(URLProbe.Mode.parse(variableValue));
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new SyntaxError(String.format("** error, expected body, head or status but got '%s'.\n", variableValue));
+                }
+                break;
+            case "url_timeout":
+                Environment.setURLTimeout(Variable.parseNumber(variableValue, 1, "seconds"));
+                break;
+            case "url_max_bytes":
+                Environment.setURLMaxBytes(Variable.parseNumber(variableValue, 1, "bytes"));
+                break;
+            case "url_host_threads":
+                Environment.setURLHostThreads(Variable.parseNumber(variableValue, 1, "threads"));
+                break;
+            case "url_host_rate":
+                Environment.setURLHostRate(Variable.parseNumber(variableValue, 0, "checks per second"));
+                break;
+            case "url_host_failures":
+                Environment.setURLHostFailures(Variable.parseNumber(variableValue, 0, "failures"));
+                break;
+            case "url_prefetch":
+                Environment.setURLPrefetch(Boolean.parseBoolean(variableValue));
+                break;
             default:
                 this.symbolTable.put(variableName, variableValue);
                 break;
         }
     }
 
+    /**
+     * Reads a number.
+     * @param value the variable's value.
+     * @param min the smallest number allowed.
+     * @param units what is counted, for the error message, like "threads".
+     * @return the number.
+     * @throws SyntaxError if the value isn't a number of at least min.
+     */
+    private static int parseNumber(String value, int min, String units) throws SyntaxError
+    {
+        try
+        {
+            int number = Integer.parseInt(value);
+            if (number >= min)
+            {
+                return number;
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // Reported below.
+        }
+        throw new SyntaxError(String.format("** error, expected a number of %s but got '%s'.\n", units, value));
+    }
+
     @Override
     public void setRecord(Record record) 
     {  }
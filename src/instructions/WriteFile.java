@@ -16,14 +16,17 @@
 package instructions;
 
 import MARC.DirtyRecord;
+import MARC.Leader;
 import MARC.Record;
 import instructions.Parser.SyntaxError;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,24 +34,42 @@ import java.util.logging.Logger;
 /**
  * Instruction in the form of "record[s] write [name] as [text|binary]".
  * 
+ * The file is opened when the first record arrives, or at the end of the job
+ * if none do, and records are appended as they are produced, so neither memory nor the number of writes depends on
+ * the size of the MARC file. 'record write' writes the record when the 
+ * instruction runs. 'records write' writes each record it is given once the
+ * record has been through all the instructions, that is, when the next record
+ * arrives or at the end of the job.
+ * 
  * @author Andrew
  */
 class WriteFile extends Instruction 
 {
-
-    private static String fileName; // TODO add a sequence number to the file name to make it unique.
+    // Size of the buffer binary records are written through.
+    private final static int BUFFER_SIZE = 1024 * 1024;
+    private final String fileName;
     private boolean outputBinary;
-    private final List<Record> records;
     private boolean runNow;
+    private Record record;
+    // Record waiting to be written in 'records' mode.
+    private Record pending;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private PrintWriter writer;
+    private boolean isOpen;
+    private boolean isFailed;
 
     public WriteFile(List<String> tokens) throws SyntaxError 
     {
         this.outputBinary   = true; // Default to output binary MARC file.
         this.runNow         = false;
-        this.records        = new ArrayList<>();
+        this.record         = null;
+        this.pending        = null;
+        this.isOpen         = false;
+        this.isFailed       = false;
         this.tag            = tokens.remove(0);
         this.verb           = tokens.remove(0);
-        WriteFile.fileName  = tokens.remove(0);
+        this.fileName       = tokens.remove(0);
         String assign       = tokens.remove(0);
         String format       = tokens.remove(0);
         switch (this.tag)
@@ -57,7 +78,7 @@ class WriteFile extends Instruction
                 this.runNow = true; // runs for each record.
                 break;
             case "records":
-                this.runNow = false; // runs only when have finished with all records.
+                this.runNow = false; // writes each record once all instructions have run on it.
                 break;
             default:
                 throw new UnsupportedOperationException(String.format("operation '%s' not supported.", this.tag));
@@ -95,105 +116,144 @@ class WriteFile extends Instruction
     @Override
     public void setRecord(Record record) 
     {
-        this.records.add(record);
+        this.record = record;
+        if (! this.runNow)
+        {
+            // The previous record has been through all the instructions.
+            if (this.pending != null)
+            {
+                this.output(this.pending);
+            }
+            this.pending = record;
+        }
     }
     
     /**
-     * Writes the marc record as a standard marc binary file.
-     * @return true if the file was created correctly and false otherwise.
+     * Opens the output file the first time a record arrives.
+     * @return true if the file is open and false if it couldn't be opened.
      */
-    private boolean runBinaryOutput()
+    private boolean open()
     {
-        FileOutputStream out = null;
+        if (this.isOpen)
+        {
+            return true;
+        }
+        if (this.isFailed)
+        {
+            return false;
+        }
         try 
         {
-            out = new FileOutputStream(this.fileName);
-            for (Record r: this.records)
+            if (this.outputBinary)
             {
-                // there may be no changes to the record, but we want the record to
-                // be output if the user has selected so in the intructions.
-                if (Environment.isOutputOnChangeOnly() && r instanceof DirtyRecord)
-                {
-                    // If no changes and doesn't match on say a filter selection skip it.
-                    if (((DirtyRecord)r).isDirty() == false)
-                    {
-                        continue;
-                    }
-                }
-                r.write(out);
-                Environment.incrementWrittenRecords();
+                this.channel = FileChannel.open(Paths.get(this.fileName), 
+                        StandardOpenOption.CREATE, 
+                        StandardOpenOption.WRITE, 
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
             }
-            out.flush();
-            out.close();
-            this.records.clear();
-        } 
-        catch (FileNotFoundException ex) 
-        {
-            Logger.getLogger(WriteFile.class.getName()).log(Level.SEVERE, 
-                    "** error file should have been created!" , ex);
-            return false;
+            else
+            {
+                this.writer = new PrintWriter(this.fileName, StandardCharsets.UTF_8.name());
+            }
+            this.isOpen = true;
         } 
         catch (IOException ex) 
         {
             Logger.getLogger(WriteFile.class.getName()).log(Level.SEVERE, 
-                    "** error writing file " + this.fileName, ex);
+                    "** error, file should have been created!" , ex);
+            this.isFailed = true;
+        }
+        return this.isOpen;
+    }
+    
+    /**
+     * Appends a record to the file.
+     * @param r the record to write.
+     * @return true if the record was written, or skipped because it wasn't 
+     * modified, and false if it couldn't be written.
+     */
+    private boolean output(Record r)
+    {
+        if (! this.open())
+        {
             return false;
-        } 
-        finally 
+        }
+        // there may be no changes to the record, but we want the record to
+        // be output if the user has selected so in the intructions.
+        if (Environment.isOutputOnChangeOnly() && r instanceof DirtyRecord)
+        {
+            // If no changes and doesn't match on say a filter selection skip it.
+            if (((DirtyRecord)r).isDirty() == false)
+            {
+                return true;
+            }
+        }
+        if (this.outputBinary)
         {
-            try 
+            try
             {
-                out.close();
-            } 
+                // Records are at most Leader.MAX_RECORD_LENGTH bytes, so one always fits.
+                if (this.buffer.remaining() < Leader.MAX_RECORD_LENGTH)
+                {
+                    this.flush();
+                }
+                r.write(this.buffer);
+            }
             catch (IOException ex) 
             {
                 Logger.getLogger(WriteFile.class.getName()).log(Level.SEVERE, 
-                        "** error closing the file " + this.fileName, ex);
+                        "** error writing file " + this.fileName, ex);
                 return false;
             }
         }
+        else
+        {
+            this.writer.println(r.toString());
+        }
+        Environment.incrementWrittenRecords();
         return true;
     }
     
     /**
-     * Writes a the marc record out as text.
-     * @return true if the file was created correctly and false otherwise.
+     * Writes the buffered records to the file.
+     * @throws IOException if the file couldn't be written.
      */
-    private boolean runTextOutput()
+    private void flush() throws IOException
     {
-        try (PrintWriter writer = new PrintWriter(this.fileName, "UTF-8")) 
+        this.buffer.flip();
+        while (this.buffer.hasRemaining())
         {
-            for (Record r: this.records)
-            {
-                // there may be no changes to the record, but we want the record to
-                // be output if the user has selected so in the intructions.
-                if (Environment.isOutputOnChangeOnly() && r instanceof DirtyRecord)
-                {
-                    // If no changes and doesn't match on say a filter selection skip it.
-                    if (((DirtyRecord)r).isDirty() == false)
-                    {
-                        continue;
-                    }
-                }
-                writer.println(r.toString());
-                Environment.incrementWrittenRecords();
-            }
-            writer.flush();
-            writer.close();
-            // Clear the records so every time we are requested to ouput a file
-            // we only output the records we haven't handled yet.
-            this.records.clear();
-        } 
-        catch (FileNotFoundException ex)
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+    
+    /**
+     * Flushes and closes the file.
+     * @return true if the file was closed cleanly and false otherwise.
+     */
+    private boolean close()
+    {
+        if (! this.isOpen)
         {
-            Logger.getLogger(WriteFile.class.getName()).log(Level.SEVERE, 
-                    "** error, file should have been created!", ex);
-            return false;
+            return true;
         }
-        catch (UnsupportedEncodingException ex) 
+        this.isOpen = false;
+        if (! this.outputBinary)
+        {
+            this.writer.close();
+            return ! this.writer.checkError();
+        }
+        try
+        {
+            this.flush();
+            this.channel.close();
+        }
+        catch (IOException ex) 
         {
             Logger.getLogger(WriteFile.class.getName()).log(Level.SEVERE, 
-                    "** error, UTF-8 not supported.", ex);
+                    "** error closing the file " + this.fileName, ex);
             return false;
         }
         return true;
@@ -204,25 +264,37 @@ class WriteFile extends Instruction
     {
         if (this.runNow)
         {
-            if (this.outputBinary)
-            {
-                return runBinaryOutput();
-            }
-            return runTextOutput();
+            return this.output(this.record);
         }
-        // else just return true until the actual work get done in finalize.
+        // else just return true, the record is written once it is finished with.
         return true;
     }
     
+    @Override
+    public boolean isPerRecord()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean addReferencedTags(BitSet tags)
+    {
+        // Binary output copies fields that weren't decoded as they are, text 
+        // output formats every field.
+        return this.outputBinary;
+    }
+    
     @Override
     public boolean setFinalize()
     {
-        this.runNow = true;
-        // Don't run if there aren't any records, it will zero out the file.
-        if (this.records.size() > 0)
+        boolean result = true;
+        if (this.pending != null)
         {
-            return run();
+            result = this.output(this.pending);
+            this.pending = null;
         }
-        return true;
+        // The file is created even if no records were written to it.
+        result = this.open() && result;
+        return this.close() && result;
     }
 }
@@ -16,9 +16,12 @@
 package marcer;
 
 import MARC.MARCFile;
+import MARC.RecordFilter;
 import instructions.Environment;
 import instructions.Interpreter;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.cli.BasicParser;
@@ -43,6 +46,7 @@ public class MARCer
         // parse the command line.
         MARCFile marcFile = null;
         Interpreter interpreter = null;
+        boolean isScan = false;
         // First get the valid options
         Options options = new Options();
         // add t option c to config directory true=arg required.
@@ -53,6 +57,17 @@ public class MARCer
         options.addOption("f", true, "MARC file to analyse.");
         // Add -i, marc file to read.
         options.addOption("i", true, "File of test and modification instructions.");
+        // Add -j, number of threads to process records with.
+        options.addOption("j", true, "Number of worker threads used to process records.");
+        // Add -u, records may be output out of order when running on threads.
+        options.addOption("u", false, "Output records as they finish rather than in input order.");
+        // Add -s, worker threads read the file in ranges.
+        options.addOption("s", false, "Split the file into ranges read and decoded by the worker threads.");
+        // Add -a (--start), first record to process, and -n (--limit), how many.
+        options.addOption("a", "start", true, "Number of the first record to process, counting from 0.");
+        options.addOption("n", "limit", true, "Most records to process.");
+        // Add -c, count records by their leaders without decoding them.
+        options.addOption("c", false, "Count records by leader values, and the script's leader tests.");
         try
         {
             CommandLineParser cmdLineParser = new BasicParser();
@@ -68,12 +83,47 @@ public class MARCer
             {
                 Environment.setDebug(true);
             }
+            if (cmd.hasOption("j"))
+            {
+                try
+                {
+                    int threads = Integer.parseInt(cmd.getOptionValue("j"));
+                    if (threads < 1)
+                    {
+                        throw new NumberFormatException();
+                    }
+                    Environment.setThreads(threads);
+                }
+                catch (NumberFormatException e)
+                {
+                    System.err.printf("** error, expected a number of threads but got '%s'.\n", 
+                            cmd.getOptionValue("j"));
+                    System.exit(2);
+                }
+            }
+            if (cmd.hasOption("u"))
+            {
+                Environment.setUnordered(true);
+            }
+            if (cmd.hasOption("s"))
+            {
+                Environment.setSplit(true);
+            }
+            if (cmd.hasOption("a"))
+            {
+                Environment.setStart(MARCer.getCount(cmd.getOptionValue("a"), "start record"));
+            }
+            if (cmd.hasOption("n"))
+            {
+                Environment.setLimit(MARCer.getCount(cmd.getOptionValue("n"), "record limit"));
+            }
+            isScan = cmd.hasOption("c");
             // Handle the user instructions.
             if (cmd.hasOption("i"))
             {
                 interpreter = new Interpreter(cmd.getOptionValue("i"));
             }
-            else
+            else if (! isScan)
             {
                 String msg = new Date() + "No instructions specified.";
                 Logger.getLogger(MARCer.class.getName()).log(Level.SEVERE, msg);
@@ -93,6 +143,44 @@ public class MARCer
             Logger.getLogger(MARCer.class.getName()).log(Level.SEVERE, msg, ex);
             System.exit(2);
         }
+        if (isScan)
+        {
+            if (Environment.getMarcFile().isEmpty())
+            {
+                System.err.printf("** error, no MARC file to count.\n");
+                System.exit(2);
+            }
+            List<RecordFilter> tests = interpreter == null 
+                    ? new ArrayList<>() : interpreter.getLeaderTests();
+            marcFile = new MARCFile.Builder(Environment.getMarcFile()).build();
+            marcFile.scanLeaders(tests).print();
+            return;
+        }
         interpreter.runInstructions();
     }
+    
+    /**
+     * Reads a count from the command line, exiting if it isn't a number of 0 or more.
+     * @param value the option's value.
+     * @param name what the count is, for the error message.
+     * @return the count.
+     */
+    private static int getCount(String value, String name)
+    {
+        try
+        {
+            int count = Integer.parseInt(value);
+            if (count >= 0)
+            {
+                return count;
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // Reported below.
+        }
+        System.err.printf("** error, expected a number for the %s but got '%s'.\n", name, value);
+        System.exit(2);
+        return 0;
+    }
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2016 anisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utility;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when the checks of each host's links run. Every host has its own
+ * queue, so a slow host holds up its own links but no others:
+ * <ul>
+ * <li>no more than a set number of a host's links are checked at once,</li>
+ * <li>checks of a host's links start no faster than a set rate, and</li>
+ * <li>after a set number of failures in a row, the host's remaining links
+ * are skipped for a while rather than each waiting for a timeout. After that
+ * one link is tried, and the host's links are checked again if it works.</li>
+ * </ul>
+ * Checks waiting their turn don't hold a thread.
+ * @author anisbet
+ */
+public class HostScheduler
+{
+    public final static long DEFAULT_COOLDOWN = TimeUnit.SECONDS.toMillis(60);
+    private final int perHost;
+    // Nanoseconds between the starts of checks on a host, 0 for no limit.
+    private final long interval;
+    private final int failureLimit;
+    private final long cooldown;
+    private final Map<String, Host> hosts;
+    private final ScheduledExecutorService timer;
+    // Nanoseconds from some fixed point, like System.nanoTime().
+    private final LongSupplier clock;
+
+    /**
+     * A check to run when its host's turn comes.
+     */
+    interface Job
+    {
+        /**
+         * Runs the check.
+         * @return true if the host answered, false if it failed, say the
+         * connection timed out or the server had an error.
+         */
+        boolean run();
+
+        /**
+         * Called instead of {@link #run()} if the host is failing.
+         */
+        void skip();
+    }
+
+    /**
+     * Queue and state of one host.
+     */
+    private static class Host
+    {
+        private final String name;
+        private final ArrayDeque<Job> waiting = new ArrayDeque<>();
+        private int running;
+        // Earliest start of the next check, from the scheduler's clock.
+        private long nextStart;
+        private boolean isWoken;
+        private int failures;
+        // Links are skipped until this time once failures reach the limit.
+        private long skipUntil;
+
+        Host(String name, long now)
+        {
+            this.name      = name;
+            this.nextStart = now;
+            this.skipUntil = now;
+        }
+    }
+
+    /**
+     * Creates a scheduler.
+     * @param perHost most checks of one host's links at once.
+     * @param perSecond most checks of one host's links started each second,
+     * or 0 for no limit.
+     * @param failureLimit failures in a row after which a host's links are
+     * skipped, or 0 to never skip them.
+     * @param cooldown milliseconds a failing host's links are skipped.
+     */
+    public HostScheduler(int perHost, int perSecond, int failureLimit, long cooldown)
+    {
+        this(perHost, perSecond, failureLimit, cooldown, System::nanoTime);
+    }
+
+    /**
+     * Creates a scheduler that reads the time from a clock, so tests can
+     * say when it is. The other arguments are as in
+     * {@link #HostScheduler(int, int, int, long)}.
+     * @param clock nanoseconds from some fixed point.
+     */
+    HostScheduler(int perHost, int perSecond, int failureLimit, long cooldown, LongSupplier clock)
+    {
+        this.clock        = clock;
+        this.perHost      = perHost;
+        this.interval     = perSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / perSecond : 0L;
+        this.failureLimit = failureLimit;
+        this.cooldown     = TimeUnit.MILLISECONDS.toNanos(cooldown);
+        this.hosts        = new HashMap<>();
+        this.timer        = Executors.newSingleThreadScheduledExecutor((Runnable r) ->
+        {
+            Thread thread = new Thread(r, "url-host-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a check of one of a host's links.
+     * @param host the host's name.
+     * @param job the check.
+     * @param executor runs the check when its turn comes.
+     */
+    void submit(String host, Job job, Executor executor)
+    {
+        List<Job> skipped;
+        synchronized (this)
+        {
+            Host h = this.hosts.computeIfAbsent(host, name -> new Host(name, this.clock.getAsLong()));
+            h.waiting.add(job);
+            skipped = this.dispatch(h, executor);
+        }
+        HostScheduler.skip(skipped);
+    }
+
+    /**
+     * Starts as many of a host's waiting checks as its limits allow.
+     * @return checks to skip because the host is failing.
+     */
+    private List<Job> dispatch(Host h, Executor executor)
+    {
+        List<Job> skipped = new ArrayList<>();
+        long now = this.clock.getAsLong();
+        while (! h.waiting.isEmpty() && h.running < this.perHost)
+        {
+            if (this.isFailing(h))
+            {
+                if (now - h.skipUntil < 0L)
+                {
+                    skipped.addAll(h.waiting);
+                    h.waiting.clear();
+                    break;
+                }
+                if (h.running > 0)
+                {
+                    // Wait for the one check that tests if the host is back.
+                    break;
+                }
+            }
+            if (now - h.nextStart < 0L)
+            {
+                if (! h.isWoken)
+                {
+                    h.isWoken = true;
+                    this.timer.schedule(() -> this.wake(h, executor), h.nextStart - now, TimeUnit.NANOSECONDS);
+                }
+                break;
+            }
+            Job job = h.waiting.poll();
+            h.running++;
+            h.nextStart = now + this.interval;
+            executor.execute(() ->
+            {
+                boolean isAnswered = false;
+                try
+                {
+                    isAnswered = job.run();
+                }
+                finally
+                {
+                    this.finish(h, isAnswered, executor);
+                }
+            });
+        }
+        return skipped;
+    }
+
+    private void wake(Host h, Executor executor)
+    {
+        List<Job> skipped;
+        synchronized (this)
+        {
+            h.isWoken = false;
+            skipped = this.dispatch(h, executor);
+        }
+        HostScheduler.skip(skipped);
+    }
+
+    /**
+     * Records the outcome of a check and starts the host's next checks.
+     */
+    private void finish(Host h, boolean isAnswered, Executor executor)
+    {
+        List<Job> skipped;
+        synchronized (this)
+        {
+            h.running--;
+            if (isAnswered)
+            {
+                h.failures = 0;
+            }
+            else
+            {
+                h.failures++;
+                if (this.isFailing(h))
+                {
+                    // Report when the host starts failing or fails its retry.
+                    long now = this.clock.getAsLong();
+                    if (h.failures == this.failureLimit || now - h.skipUntil >= 0L)
+                    {
+                        System.err.printf("** error, host '%s' failed %d times in a row, skipping its links for %d seconds.\n",
+                                h.name, h.failures, TimeUnit.NANOSECONDS.toSeconds(this.cooldown));
+                    }
+                    h.skipUntil = now + this.cooldown;
+                }
+            }
+            skipped = this.dispatch(h, executor);
+        }
+        HostScheduler.skip(skipped);
+    }
+
+    private boolean isFailing(Host h)
+    {
+        return this.failureLimit > 0 && h.failures >= this.failureLimit;
+    }
+
+    private static void skip(List<Job> skipped)
+    {
+        for (Job job: skipped)
+        {
+            job.skip();
+        }
+    }
+
+    /**
+     * Stops the timer. Checks still waiting for their turn won't start.
+     */
+    public void shutdown()
+    {
+        this.timer.shutdownNow();
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2016 anisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utility;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks links on a fixed number of threads, so pages are fetched at the same
+ * time rather than one after the other, but no more than a set number at once.
+ * The threads spend almost all their time waiting on the network, so the 
+ * number can be well above the number of processors. Each host's links wait
+ * their turn in a {@link HostScheduler}, which limits how hard a host is 
+ * checked and skips the links of a host that keeps failing.
+ *
+ * Results are kept in a {@link URLCache}. A link checked recently isn't 
+ * fetched again, a link checked a while ago is only fetched again if it 
+ * changed, and a link already being checked for another record shares that
+ * check.
+ * @author anisbet
+ */
+public class LinkChecker
+{
+    private final ExecutorService executor;
+    private final URLCache cache;
+    private final URLProbe probe;
+    private final HostScheduler hosts;
+    // Checks started but not finished, by phrase and normalized URL.
+    private final ConcurrentHashMap<String, CompletableFuture<Outcome>> inFlight;
+    // Checks started by prefetch, kept for the run whatever the result.
+    private final ConcurrentHashMap<String, Future<Outcome>> prefetched;
+
+    /**
+     * Answer to a check of a link.
+     */
+    public enum Outcome
+    {
+        // The page contained the phrase, or the server answered with an error
+        // in head and status modes.
+        FOUND,
+        // It didn't, or the link couldn't be reached.
+        NOT_FOUND,
+        // The link wasn't checked because its host kept failing.
+        SKIPPED
+    }
+
+    /**
+     * Creates a checker that searches pages and keeps results in memory 
+     * for the run.
+     * @param threads most links checked at once.
+     */
+    public LinkChecker(int threads)
+    {
+        this(threads, new URLCache(null, Long.MAX_VALUE, URLCache.DEFAULT_SIZE));
+    }
+
+    /**
+     * Creates a checker that searches pages.
+     * @param threads most links checked at once.
+     * @param cache results of earlier checks.
+     */
+    public LinkChecker(int threads, URLCache cache)
+    {
+        this(threads, cache, new URLProbe(URLProbe.Mode.BODY, 
+                URLProbe.DEFAULT_TIMEOUT, URLProbe.DEFAULT_MAX_BYTES),
+                new HostScheduler(threads, 0, 0, HostScheduler.DEFAULT_COOLDOWN));
+    }
+
+    /**
+     * Creates a checker.
+     * @param threads most links checked at once.
+     * @param cache results of earlier checks.
+     * @param probe how each link is checked.
+     * @param hosts limits on checks of each host's links.
+     */
+    public LinkChecker(int threads, URLCache cache, URLProbe probe, HostScheduler hosts)
+    {
+        this.probe    = probe;
+        this.cache    = cache;
+        this.hosts    = hosts;
+        this.inFlight = new ConcurrentHashMap<>();
+        this.prefetched = new ConcurrentHashMap<>();
+        AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, (Runnable r) -> 
+        {
+            Thread thread = new Thread(r, "url-check-" + count.getAndIncrement());
+            // Don't keep the JVM running for checks nobody waits for.
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts checking a link.
+     * @param url the link.
+     * @param phrase phrase to search for in body mode, like "404 not found".
+     * @return the answer once the check is done, see {@link Outcome}.
+     */
+    public Future<Outcome> contains(String url, String phrase)
+    {
+        String key = URLCache.normalize(url);
+        // Any earlier check of the link has the status.
+        String test = this.probe.getMode() == URLProbe.Mode.BODY ? phrase : null;
+        String id = this.getId(key, phrase);
+        Future<Outcome> known = this.prefetched.get(id);
+        if (known != null)
+        {
+            return known;
+        }
+        URLCache.Entry entry = this.cache.get(key, test);
+        if (entry != null && this.cache.isFresh(entry, System.currentTimeMillis()))
+        {
+            return CompletableFuture.completedFuture(this.answer(entry));
+        }
+        CompletableFuture<Outcome> future = new CompletableFuture<>();
+        CompletableFuture<Outcome> running = this.inFlight.putIfAbsent(id, future);
+        if (running != null)
+        {
+            return running;
+        }
+        this.hosts.submit(LinkChecker.getHost(key), new HostScheduler.Job()
+        {
+            @Override
+            public boolean run()
+            {
+                try
+                {
+                    URLProbe.Result result = LinkChecker.this.check(url, key, test, entry);
+                    LinkChecker.this.inFlight.remove(id);
+                    future.complete(result.isFound() ? Outcome.FOUND : Outcome.NOT_FOUND);
+                    return LinkChecker.isAnswered(result.getStatus());
+                }
+                catch (RuntimeException | Error e)
+                {
+                    LinkChecker.this.inFlight.remove(id);
+                    future.completeExceptionally(e);
+                    throw e;
+                }
+            }
+
+            @Override
+            public void skip()
+            {
+                LinkChecker.this.inFlight.remove(id);
+                future.complete(Outcome.SKIPPED);
+            }
+        }, this.executor);
+        return future;
+    }
+
+    /**
+     * Starts checking a link ahead of the records that have it. The answer
+     * is kept for the rest of the run, so later calls to 
+     * {@link #contains(String, String)} for the link get it without asking
+     * the cache or the network again, even if the link couldn't be reached.
+     * @param url the link.
+     * @param phrase phrase to search for in body mode.
+     * @return the answer once the check is done, or null if the link was
+     * already prefetched.
+     */
+    public Future<Outcome> prefetch(String url, String phrase)
+    {
+        String key = URLCache.normalize(url);
+        String id = this.getId(key, phrase);
+        if (this.prefetched.containsKey(id))
+        {
+            return null;
+        }
+        Future<Outcome> check = this.contains(url, phrase);
+        return this.prefetched.putIfAbsent(id, check) == null ? check : null;
+    }
+
+    /**
+     * Checks a link, or asks if it changed if there is an earlier result 
+     * that can be revalidated, and keeps the result.
+     * @param url the link.
+     * @param key the normalized link.
+     * @param phrase phrase to search for, or null if only the status is checked.
+     * @param entry earlier result that is no longer fresh, or null.
+     * @return the result.
+     */
+    private URLProbe.Result check(String url, String key, String phrase, URLCache.Entry entry)
+    {
+        long now = System.currentTimeMillis();
+        boolean isRevalidating = entry != null && entry.canRevalidate();
+        URLProbe.Result result = isRevalidating
+                ? this.probe.probe(url, phrase, entry.getETag(), entry.getLastModified())
+                : this.probe.probe(url, phrase, null, null);
+        if (isRevalidating && result.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED)
+        {
+            this.cache.put(key, entry.renew(now));
+            return new URLProbe.Result(result.getStatus(), this.answer(entry) == Outcome.FOUND,
+                    entry.getETag(), entry.getLastModified(), 0L);
+        }
+        // A link that couldn't be reached is tried again next time.
+        if (result.getStatus() != URLProbe.UNREACHABLE)
+        {
+            this.cache.put(key, new URLCache.Entry(phrase, result.getStatus(), result.isFound(),
+                    result.getETag(), result.getLastModified(), now));
+        }
+        return result;
+    }
+
+    /**
+     * Identifies a check, so checks that ask the same thing are shared.
+     * @param key the normalized link.
+     * @param phrase the phrase, which only matters in body mode.
+     * @return the identifier.
+     */
+    private String getId(String key, String phrase)
+    {
+        return this.probe.getMode() == URLProbe.Mode.BODY ? phrase + '\t' + key : key;
+    }
+
+    /**
+     * Reads the answer from an earlier result.
+     */
+    private Outcome answer(URLCache.Entry entry)
+    {
+        boolean isFound = this.probe.getMode() == URLProbe.Mode.BODY 
+                ? entry.isFound() : URLProbe.isError(entry.getStatus());
+        return isFound ? Outcome.FOUND : Outcome.NOT_FOUND;
+    }
+
+    /**
+     * Tests if a host answered a check. A link that couldn't be reached, a 
+     * server error, or a request to slow down counts against the host, a
+     * missing page doesn't.
+     * @param status HTTP status of the check.
+     * @return true if the host answered.
+     */
+    private static boolean isAnswered(int status)
+    {
+        return status != URLProbe.UNREACHABLE && status != 429 
+                && status < HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+
+    /**
+     * Gets the server a link points to, which decides the queue it waits in.
+     * @param key the normalized link.
+     * @return the host, and the port if it isn't the default, or empty if 
+     * the link has no host.
+     */
+    private static String getHost(String key)
+    {
+        try
+        {
+            URI uri = new URI(key);
+            if (uri.getHost() == null)
+            {
+                return "";
+            }
+            return uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ':' + uri.getPort();
+        }
+        catch (URISyntaxException e)
+        {
+            return "";
+        }
+    }
+
+    /**
+     * @return the results of checks.
+     */
+    public URLCache getCache()
+    {
+        return this.cache;
+    }
+
+    /**
+     * Stops the threads once the checks already started are done.
+     */
+    public void shutdown()
+    {
+        this.hosts.shutdown();
+        this.executor.shutdown();
+    }
+}
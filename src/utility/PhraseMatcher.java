@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 anisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utility;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Searches a stream of bytes for a phrase as the bytes arrive, so a page can
+ * be searched while it downloads and the download stopped once the phrase
+ * turns up. The search is Boyer-Moore-Horspool: a mismatch moves the search
+ * along by up to the length of the phrase, so most bytes of a page aren't
+ * compared at all. The last few bytes of each block are kept so a phrase 
+ * split across two blocks is still found.
+ * @author anisbet
+ */
+public class PhraseMatcher
+{
+    private final byte[] phrase;
+    // How far to move the search for each value of the last byte compared.
+    private final int[] shift;
+    // Bytes from the end of earlier blocks followed by the current block.
+    private byte[] window;
+    private int kept;
+    private boolean isFound;
+
+    /**
+     * Creates a matcher.
+     * @param phrase the phrase, searched for as UTF-8.
+     */
+    public PhraseMatcher(String phrase)
+    {
+        this.phrase  = phrase.getBytes(StandardCharsets.UTF_8);
+        this.shift   = new int[256];
+        this.window  = new byte[0];
+        this.kept    = 0;
+        this.isFound = this.phrase.length == 0;
+        int last = this.phrase.length - 1;
+        for (int i = 0; i < this.shift.length; i++)
+        {
+            this.shift[i] = this.phrase.length;
+        }
+        for (int i = 0; i < last; i++)
+        {
+            this.shift[this.phrase[i] & 0xff] = last - i;
+        }
+    }
+
+    /**
+     * Searches the next block of bytes.
+     * @param bytes the bytes.
+     * @param offset index of the first byte of the block.
+     * @param length number of bytes in the block.
+     * @return true if the phrase has been found in this or an earlier block.
+     */
+    public boolean update(byte[] bytes, int offset, int length)
+    {
+        if (this.isFound)
+        {
+            return true;
+        }
+        int size = this.kept + length;
+        if (this.window.length < size)
+        {
+            byte[] larger = new byte[size];
+            System.arraycopy(this.window, 0, larger, 0, this.kept);
+            this.window = larger;
+        }
+        System.arraycopy(bytes, offset, this.window, this.kept, length);
+        int m = this.phrase.length;
+        int last = m - 1;
+        int i = 0;
+        while (i + m <= size)
+        {
+            int j = last;
+            while (this.window[i + j] == this.phrase[j])
+            {
+                if (j == 0)
+                {
+                    this.isFound = true;
+                    return true;
+                }
+                j--;
+            }
+            i += this.shift[this.window[i + last] & 0xff];
+        }
+        // Keep the bytes a match that ends in the next block could start in.
+        this.kept = Math.min(last, size);
+        System.arraycopy(this.window, size - this.kept, this.window, 0, this.kept);
+        return false;
+    }
+
+    /**
+     * @return true if the phrase has been found.
+     */
+    public boolean isFound()
+    {
+        return this.isFound;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2016 anisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utility;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Results of link checks, so a link shared by many records, or checked again
+ * on the next run, isn't fetched every time. Entries are kept in memory, the
+ * least recently used dropped first once the cache is full, and can be saved
+ * to a file and loaded on the next run.
+ *
+ * An entry is fresh for a fixed time after the page was checked. After that
+ * it's revalidated: the page is requested with the entry's ETag and
+ * Last-Modified, and if the server says it hasn't changed the entry is fresh
+ * again without fetching the page.
+ * @author anisbet
+ */
+public class URLCache
+{
+    // Most entries kept in memory.
+    public final static int DEFAULT_SIZE = 100000;
+    private final static String HEADER = "# url\tphrase\tstatus\tfound\tetag\tlast-modified\tchecked";
+    private final Map<String, Entry> entries;
+    private final long timeToLive;
+    private final String fileName;
+
+    /**
+     * Result of checking a page for a phrase.
+     */
+    public static class Entry
+    {
+        private final String phrase;
+        private final int status;
+        private final boolean isFound;
+        private final String eTag;
+        private final String lastModified;
+        private final long checked;
+
+        /**
+         * @param phrase the phrase searched for, or null if only the status
+         * was checked.
+         * @param status HTTP status of the page, see {@link URLProbe.Result#getStatus()}.
+         * @param isFound true if the page contained the phrase.
+         * @param eTag the page's ETag or null.
+         * @param lastModified the page's Last-Modified or null.
+         * @param checked time of the check in milliseconds since the epoch.
+         */
+        public Entry(String phrase, int status, boolean isFound, String eTag,
+                String lastModified, long checked)
+        {
+            this.phrase       = phrase;
+            this.status       = status;
+            this.isFound      = isFound;
+            this.eTag         = eTag;
+            this.lastModified = lastModified;
+            this.checked      = checked;
+        }
+
+        public String getPhrase()
+        {
+            return this.phrase;
+        }
+
+        public int getStatus()
+        {
+            return this.status;
+        }
+
+        public boolean isFound()
+        {
+            return this.isFound;
+        }
+
+        public String getETag()
+        {
+            return this.eTag;
+        }
+
+        public String getLastModified()
+        {
+            return this.lastModified;
+        }
+
+        /**
+         * @return true if the server gave a validator, so the entry can be
+         * revalidated without fetching the page.
+         */
+        public boolean canRevalidate()
+        {
+            return this.eTag != null || this.lastModified != null;
+        }
+
+        /**
+         * Copies the entry with a new check time, for a page that hasn't changed.
+         * @param now time of the check in milliseconds since the epoch.
+         * @return the copy.
+         */
+        public Entry renew(long now)
+        {
+            return new Entry(this.phrase, this.status, this.isFound, this.eTag,
+                    this.lastModified, now);
+        }
+    }
+
+    /**
+     * Creates a cache.
+     * @param fileName file the cache is loaded from and saved to, or null
+     * or empty to keep it in memory only.
+     * @param timeToLive milliseconds an entry is fresh after its page is checked.
+     * @param size most entries kept in memory.
+     */
+    public URLCache(String fileName, long timeToLive, int size)
+    {
+        this.fileName   = fileName == null || fileName.isEmpty() ? null : fileName;
+        this.timeToLive = timeToLive;
+        this.entries    = new LinkedHashMap<String, URLCache.Entry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, URLCache.Entry> eldest)
+            {
+                return this.size() > size;
+            }
+        };
+    }
+
+    /**
+     * Puts a URL in a standard form so different spellings of the same link
+     * share an entry: the scheme and host in lower case, no default port,
+     * an empty path as '/', and no fragment.
+     * @param url the URL.
+     * @return the normalized URL, or the URL trimmed if it can't be parsed.
+     */
+    public static String normalize(String url)
+    {
+        String trimmed = url.trim();
+        try
+        {
+            URI uri = new URI(trimmed);
+            if (uri.getScheme() == null || uri.getHost() == null)
+            {
+                return trimmed;
+            }
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if ((port == 80 && scheme.equals("http")) || (port == 443 && scheme.equals("https")))
+            {
+                port = -1;
+            }
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            StringBuilder sb = new StringBuilder();
+            sb.append(scheme).append("://").append(uri.getHost().toLowerCase(Locale.ROOT));
+            if (port >= 0)
+            {
+                sb.append(':').append(port);
+            }
+            sb.append(path);
+            if (uri.getRawQuery() != null)
+            {
+                sb.append('?').append(uri.getRawQuery());
+            }
+            return sb.toString();
+        }
+        catch (URISyntaxException e)
+        {
+            return trimmed;
+        }
+    }
+
+    /**
+     * Gets the entry for a link checked for a phrase.
+     * @param url the normalized URL.
+     * @param phrase the phrase, or null for any check of the link, since
+     * every check gets the status.
+     * @return the entry, fresh or not, or null if the link wasn't checked
+     * for the phrase.
+     */
+    public synchronized Entry get(String url, String phrase)
+    {
+        Entry entry = this.entries.get(url);
+        return entry != null && (phrase == null || phrase.equals(entry.phrase)) ? entry : null;
+    }
+
+    /**
+     * Adds or replaces an entry.
+     * @param url the normalized URL.
+     * @param entry the result.
+     */
+    public synchronized void put(String url, Entry entry)
+    {
+        this.entries.put(url, entry);
+    }
+
+    /**
+     * Tests if an entry can be used without asking the server.
+     * @param entry the entry.
+     * @param now the time in milliseconds since the epoch.
+     * @return true if the entry was checked less than the time to live ago.
+     */
+    public boolean isFresh(Entry entry, long now)
+    {
+        return now - entry.checked < this.timeToLive;
+    }
+
+    /**
+     * @return number of entries.
+     */
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * Loads the entries saved by an earlier run, if there is a cache file.
+     * @throws IOException if the file exists but can't be read.
+     */
+    public void load() throws IOException
+    {
+        if (this.fileName == null || ! Files.exists(Paths.get(this.fileName)))
+        {
+            return;
+        }
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(this.fileName), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                if (line.startsWith("#"))
+                {
+                    continue;
+                }
+                String[] values = line.split("\t", -1);
+                if (values.length != 7)
+                {
+                    continue;
+                }
+                try
+                {
+                    this.put(values[0], new Entry(URLCache.orNull(values[1]), Integer.parseInt(values[2]),
+                            Boolean.parseBoolean(values[3]), URLCache.orNull(values[4]),
+                            URLCache.orNull(values[5]), Long.parseLong(values[6])));
+                }
+                catch (NumberFormatException e)
+                {
+                    System.err.printf("** warning, skipping bad line in URL cache '%s'.\n", this.fileName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the entries, if there is a cache file. The file is replaced
+     * whole, so an interrupted save leaves the old cache.
+     * @throws IOException if the file can't be written.
+     */
+    public void save() throws IOException
+    {
+        if (this.fileName == null)
+        {
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        synchronized (this)
+        {
+            for (Map.Entry<String, Entry> e: this.entries.entrySet())
+            {
+                Entry entry = e.getValue();
+                lines.add(String.join("\t", e.getKey(), URLCache.clean(entry.phrase),
+                        Integer.toString(entry.status), Boolean.toString(entry.isFound),
+                        URLCache.clean(entry.eTag), URLCache.clean(entry.lastModified),
+                        Long.toString(entry.checked)));
+            }
+        }
+        Path target = Paths.get(this.fileName);
+        Path temp = Paths.get(this.fileName + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+        {
+            for (String line: lines)
+            {
+                out.write(line);
+                out.newLine();
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String clean(String value)
+    {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String orNull(String value)
+    {
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2016 anisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utility;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Locale;
+
+/**
+ * Checks a link for as little as it takes to answer the question. In body
+ * mode the page is searched for a phrase as it downloads and the download
+ * stops once the phrase is found or a set number of bytes has been read. In
+ * head and status modes only the status is wanted: head mode asks with a
+ * HEAD request, and status mode makes a GET but doesn't read the page. Every
+ * request has connect and read timeouts, so a host that doesn't answer costs
+ * a bounded wait, and HTTP connections are kept open and reused for the next
+ * link on the same host.
+ * @author anisbet
+ */
+public class URLProbe
+{
+    // Status of a link that couldn't be reached.
+    public final static int UNREACHABLE = -1;
+    public final static int DEFAULT_TIMEOUT = 30000;
+    public final static int DEFAULT_MAX_BYTES = 1 << 20;
+    private final static int BLOCK_SIZE = 8192;
+    private final Mode mode;
+    private final int timeout;
+    private final int maxBytes;
+
+    /**
+     * What a check asks of a link.
+     */
+    public enum Mode
+    {
+        // Search the page for the phrase.
+        BODY,
+        // Get the status with a HEAD request.
+        HEAD,
+        // Get the status with a GET request, without reading the page.
+        STATUS;
+
+        /**
+         * Reads a mode by name, ignoring case.
+         * @param name 'body', 'head' or 'status'.
+         * @return the mode.
+         * @throws IllegalArgumentException if there is no such mode.
+         */
+        public static Mode parse(String name)
+        {
+            return Mode.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Outcome of a check.
+     */
+    public static class Result
+    {
+        private final int status;
+        private final boolean isFound;
+        private final String eTag;
+        private final String lastModified;
+        private final long bytesRead;
+
+        Result(int status, boolean isFound, String eTag, String lastModified, long bytesRead)
+        {
+            this.status       = status;
+            this.isFound      = isFound;
+            this.eTag         = eTag;
+            this.lastModified = lastModified;
+            this.bytesRead    = bytesRead;
+        }
+
+        /**
+         * @return HTTP status, or {@link URLProbe#UNREACHABLE} if there
+         * wasn't a response or the link isn't HTTP.
+         */
+        public int getStatus()
+        {
+            return this.status;
+        }
+
+        /**
+         * @return in body mode true if the page contained the phrase, and in
+         * the other modes true if the server answered with an error status.
+         */
+        public boolean isFound()
+        {
+            return this.isFound;
+        }
+
+        public String getETag()
+        {
+            return this.eTag;
+        }
+
+        public String getLastModified()
+        {
+            return this.lastModified;
+        }
+
+        /**
+         * @return bytes of the page read.
+         */
+        public long getBytesRead()
+        {
+            return this.bytesRead;
+        }
+    }
+
+    /**
+     * Creates a probe.
+     * @param mode what each check asks.
+     * @param timeout milliseconds to wait to connect, and for each read.
+     * @param maxBytes most bytes of a page searched in body mode.
+     */
+    public URLProbe(Mode mode, int timeout, int maxBytes)
+    {
+        this.mode     = mode;
+        this.timeout  = timeout;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return what each check asks.
+     */
+    public Mode getMode()
+    {
+        return this.mode;
+    }
+
+    /**
+     * Tests if a status means the link is broken, the answer in head and
+     * status modes.
+     * @param status HTTP status.
+     * @return true if the status is an error, 400 or more.
+     */
+    public static boolean isError(int status)
+    {
+        return status >= HttpURLConnection.HTTP_BAD_REQUEST;
+    }
+
+    /**
+     * Checks a link. If the link was checked before its validators can be
+     * passed, and a server that finds the page unchanged answers 304, not
+     * modified, without the page.
+     * @param link the URL.
+     * @param phrase phrase to search for in body mode, ignored otherwise.
+     * @param eTag ETag of the page at the last check, or null.
+     * @param lastModified Last-Modified of the page at the last check, or null.
+     * @return the result.
+     */
+    public Result probe(String link, String phrase, String eTag, String lastModified)
+    {
+        Mode how = this.mode;
+        try
+        {
+            URLConnection connection = this.open(link, how, eTag, lastModified);
+            int status = UNREACHABLE;
+            if (connection instanceof HttpURLConnection)
+            {
+                status = ((HttpURLConnection)connection).getResponseCode();
+                if (how == Mode.HEAD && (status == HttpURLConnection.HTTP_BAD_METHOD
+                        || status == HttpURLConnection.HTTP_NOT_IMPLEMENTED))
+                {
+                    // Some servers don't answer HEAD, ask for the page instead.
+                    ((HttpURLConnection)connection).disconnect();
+                    how = Mode.STATUS;
+                    connection = this.open(link, how, eTag, lastModified);
+                    status = ((HttpURLConnection)connection).getResponseCode();
+                }
+            }
+            String newETag = connection.getHeaderField("ETag");
+            String newLastModified = connection.getHeaderField("Last-Modified");
+            if (how != Mode.BODY)
+            {
+                URLProbe.discard(connection);
+                return new Result(status, URLProbe.isError(status), newETag, newLastModified, 0L);
+            }
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED)
+            {
+                URLProbe.discard(connection);
+                return new Result(status, false, newETag, newLastModified, 0L);
+            }
+            if (URLProbe.isError(status))
+            {
+                // Error pages aren't searched.
+                URLProbe.discard(connection);
+                System.err.printf("** error reading URL '%s'\n", link);
+                return new Result(status, false, newETag, newLastModified, 0L);
+            }
+            PhraseMatcher matcher = new PhraseMatcher(phrase);
+            long total = 0L;
+            try (InputStream in = connection.getInputStream())
+            {
+                byte[] block = new byte[BLOCK_SIZE];
+                int read;
+                while (! matcher.isFound() && total < this.maxBytes
+                        && (read = in.read(block, 0, (int)Math.min(block.length, this.maxBytes - total))) >= 0)
+                {
+                    total += read;
+                    matcher.update(block, 0, read);
+                }
+            }
+            return new Result(status, matcher.isFound(), newETag, newLastModified, total);
+        }
+        catch (IOException e)
+        {
+            System.err.printf("** error reading URL '%s'\n", link);
+            return new Result(UNREACHABLE, false, null, null, 0L);
+        }
+    }
+
+    /**
+     * Opens a connection and sends the request.
+     */
+    private URLConnection open(String link, Mode how, String eTag, String lastModified)
+            throws IOException
+    {
+        URLConnection connection = new URL(link).openConnection();
+        connection.setConnectTimeout(this.timeout);
+        connection.setReadTimeout(this.timeout);
+        if (eTag != null)
+        {
+            connection.setRequestProperty("If-None-Match", eTag);
+        }
+        if (lastModified != null)
+        {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        if (how == Mode.HEAD && connection instanceof HttpURLConnection)
+        {
+            ((HttpURLConnection)connection).setRequestMethod("HEAD");
+        }
+        connection.connect();
+        return connection;
+    }
+
+    /**
+     * Finishes with a response without reading it. The stream is closed
+     * rather than the connection, so the connection can be reused if the
+     * rest of the response is short.
+     */
+    private static void discard(URLConnection connection)
+    {
+        try
+        {
+            InputStream in = connection instanceof HttpURLConnection
+                    && URLProbe.isError(((HttpURLConnection)connection).getResponseCode())
+                    ? ((HttpURLConnection)connection).getErrorStream()
+                    : connection.getInputStream();
+            if (in != null)
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            // The response is done with either way.
+        }
+    }
+}
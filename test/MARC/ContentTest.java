@@ -195,5 +195,42 @@ public class ContentTest
         assertTrue(instance.subfieldContains("two", 'v'));
         assertFalse(instance.subfieldContains("two", 'p'));
     }
-    
+
+    /**
+     * Test that a literal '$' in the data isn't turned into a subfield 
+     * delimiter when the content is edited.
+     */
+    @Test
+    public void testLiteralDollarRoundTrip()
+    {
+        System.out.println("==literalDollarRoundTrip==");
+        byte[] bContent = {' ', ' ', 0x1f, 'a', '$', '5', 0x1f, 'u', 'x'};
+        Content instance = new Content(bContent);
+        assertEquals("  $a$5$ux", instance.toString());
+        assertTrue(instance.replaceSubField("y%20z", 'u'));
+        byte[] expResult = {' ', ' ', 0x1f, 'a', '$', '5', 0x1f, 'u', 'y', '%', '2', '0', 'z'};
+        assertArrayEquals(expResult, instance.getBytes());
+        assertEquals(expResult.length, instance.getSize());
+    }
+
+    /**
+     * Test of extractSubfield method, of class Content, with empty subfields 
+     * and after a subfield is replaced.
+     */
+    @Test
+    public void testExtractSubfield()
+    {
+        System.out.println("==extractSubfield==");
+        byte[] bContent = {'4', '0', 0x1f, 0x1f, 'u', 'a', 0x1f, 'z', 'b', 0x1f, 'u', 'c', 0x1f};
+        Content instance = new Content(bContent);
+        assertEquals("a", instance.extractSubfield('u'));
+        assertEquals("b", instance.extractSubfield('z'));
+        assertEquals("", instance.extractSubfield('4'));
+        assertTrue(instance.replaceSubField("longer", 'u'));
+        assertEquals("40$$ulonger$zb$ulonger$", instance.toString());
+        assertEquals("b", instance.extractSubfield('z'));
+        assertTrue(instance.subfieldContains("long", 'u'));
+        assertFalse(instance.subfieldContains("long", 'z'));
+        assertFalse(instance.replaceSubField("x", 'q'));
+    }
 }
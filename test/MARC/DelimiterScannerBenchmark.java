@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Andrew Nisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MARC;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Compares {@link DelimiterScanner} with a byte at a time loop, by finding 
+ * every RS, GS and non-ASCII byte in a MARC file. RS is close to the worst 
+ * case for the scanner, in a file of short fields the call per match costs 
+ * more than the long reads save; the parser only scans for sparse bytes, the 
+ * directory terminator, a record terminator or a stray RS. Not a unit test,
+ * run it by hand with the file as the argument:
+ * <pre>java -cp ... MARC.DelimiterScannerBenchmark file.mrc</pre>
+ * Each scan is repeated until the JIT has settled and the best of the rounds 
+ * is reported.
+ * @author Andrew Nisbet
+ */
+public class DelimiterScannerBenchmark
+{
+    private final static int ROUNDS = 20;
+    // Stops the JIT from removing the scans.
+    private static long sink;
+
+    private interface Scan
+    {
+        long run(ByteBuffer buffer);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 1)
+        {
+            System.err.println("usage: DelimiterScannerBenchmark <file.mrc>");
+            System.exit(1);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(args[0])));
+        System.out.printf("%d bytes\n", buffer.limit());
+        time("RS, loop", buffer, b -> loopCount(b, Record.RS));
+        time("RS, scanner", buffer, b -> scannerCount(b, Record.RS));
+        time("GS, loop", buffer, b -> loopCount(b, Record.GS));
+        time("GS, scanner", buffer, b -> scannerCount(b, Record.GS));
+        time("non-ASCII, loop", buffer, DelimiterScannerBenchmark::loopNonAscii);
+        time("non-ASCII, scanner", buffer, DelimiterScannerBenchmark::scannerNonAscii);
+        System.out.printf("(%d)\n", sink);
+    }
+
+    private static void time(String name, ByteBuffer buffer, Scan scan)
+    {
+        long best = Long.MAX_VALUE;
+        long result = 0L;
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            long start = System.nanoTime();
+            result = scan.run(buffer);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        sink += result;
+        System.out.printf("%-20s %8.2f ms %8.1f MB/s  found %d\n", name, best / 1e6, 
+                buffer.limit() / (best / 1e9) / (1 << 20), result);
+    }
+
+    private static long loopCount(ByteBuffer buffer, int b)
+    {
+        long count = 0L;
+        for (int i = 0; i < buffer.limit(); i++)
+        {
+            if (buffer.get(i) == b)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long scannerCount(ByteBuffer buffer, int b)
+    {
+        long count = 0L;
+        int i = -1;
+        while ((i = DelimiterScanner.indexOf(buffer, i + 1, buffer.limit(), b)) >= 0)
+        {
+            count++;
+        }
+        return count;
+    }
+
+    private static long loopNonAscii(ByteBuffer buffer)
+    {
+        long count = 0L;
+        for (int i = 0; i < buffer.limit(); i++)
+        {
+            if (buffer.get(i) < 0)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long scannerNonAscii(ByteBuffer buffer)
+    {
+        long count = 0L;
+        int i = -1;
+        while ((i = DelimiterScanner.indexOfNonAscii(buffer, i + 1, buffer.limit())) >= 0)
+        {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Andrew Nisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MARC;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrew Nisbet
+ */
+public class DelimiterScannerTest
+{
+    private static int naiveIndexOf(byte[] bytes, int from, int to, int b)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (bytes[i] == (byte)b)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int naiveIndexOfDelimiter(byte[] bytes, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (bytes[i] == Record.GS || bytes[i] == Record.RS || bytes[i] == Record.US)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int naiveIndexOfNonAscii(byte[] bytes, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (bytes[i] < 0)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Test that the scans agree with a byte at a time loop, for every start
+     * and end, in both byte orders, including bytes next to a match that 
+     * could be mistaken for one.
+     */
+    @Test
+    public void testAgreesWithLoop()
+    {
+        System.out.println("==agreesWithLoop==");
+        // 0x1c and 0x20 are next to the delimiters, 0x00, 0x80 and 0x9e test carries.
+        byte[] alphabet = {'a', '0', ' ', 0x00, 0x1c, 0x20, (byte)0x80, (byte)0x9e, (byte)0xc3, 
+            Record.GS, Record.RS, Record.US};
+        Random random = new Random(1);
+        for (int trial = 0; trial < 200; trial++)
+        {
+            byte[] bytes = new byte[40];
+            for (int i = 0; i < bytes.length; i++)
+            {
+                // Mostly plain text, so matches are sparse.
+                bytes[i] = random.nextInt(4) == 0 
+                        ? alphabet[random.nextInt(alphabet.length)] : (byte)'x';
+            }
+            for (ByteOrder order: new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN})
+            {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+                for (int from = 0; from <= bytes.length; from++)
+                {
+                    for (int to = from; to <= bytes.length; to++)
+                    {
+                        assertEquals(naiveIndexOf(bytes, from, to, Record.RS), 
+                                DelimiterScanner.indexOf(buffer, from, to, Record.RS));
+                        assertEquals(naiveIndexOf(bytes, from, to, 0x9e), 
+                                DelimiterScanner.indexOf(buffer, from, to, 0x9e));
+                        assertEquals(naiveIndexOfDelimiter(bytes, from, to), 
+                                DelimiterScanner.indexOfDelimiter(buffer, from, to));
+                        assertEquals(naiveIndexOfNonAscii(bytes, from, to), 
+                                DelimiterScanner.indexOfNonAscii(buffer, from, to));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that field terminators are removed from content, wherever they are.
+     */
+    @Test
+    public void testContentStripsRS()
+    {
+        System.out.println("==contentStripsRS==");
+        byte[] bytes = "\u001e  \u001fa0123456789\u001eabcdef\u001e\u001e".getBytes();
+        assertEquals("  $a0123456789abcdef", new Content(bytes).toString());
+        assertEquals("", new Content(new byte[] {Record.RS}).toString());
+        assertEquals("abc", new Content("abc".getBytes()).toString());
+    }
+}
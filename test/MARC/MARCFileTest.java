@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016 Andrew.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MARC;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrew
+ */
+public class MARCFileTest
+{
+    /**
+     * Test that scanning counts records by their leaders and leader tests.
+     */
+    @Test
+    public void testScanLeaders() throws IOException
+    {
+        System.out.println("==scanLeaders==");
+        String[][] fields = {
+            {"001", "ocm123"},
+            {"245", "10^aTitle"},
+        };
+        byte[] record = RecordTest.makeRecord(fields, 0);
+        File file = File.createTempFile("scan", ".mrc");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file))
+        {
+            out.write(record);
+            // Same record as a map.
+            record[6] = 'e';
+            out.write(record);
+            out.write(record);
+        }
+        List<RecordFilter> tests = new ArrayList<>();
+        tests.add(new PositionFilter(null, 6, "e"));
+        LeaderStatistics statistics = new MARCFile.Builder(file.getPath()).build().scanLeaders(tests);
+        assertEquals(3, statistics.getTotal());
+        assertEquals(1, statistics.getCount(6, 'a'));
+        assertEquals(2, statistics.getCount(6, 'e'));
+        assertEquals(3, statistics.getCount(9, 'a'));
+        assertEquals(2, statistics.getTestCount(0));
+    }
+
+    /**
+     * Test that the index finds records by number and control number, and 
+     * is rebuilt when the file changes.
+     */
+    @Test
+    public void testRecordIndex() throws IOException
+    {
+        System.out.println("==recordIndex==");
+        File file = File.createTempFile("index", ".mrc");
+        file.deleteOnExit();
+        new File(file.getPath() + RecordIndex.EXTENSION).deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file))
+        {
+            for (int i = 0; i < 3; i++)
+            {
+                String[][] fields = {
+                    {"001", "ocm" + i},
+                    {"035", "  ^a(Sirsi) a" + i},
+                };
+                out.write(RecordTest.makeRecord(fields, 0));
+            }
+        }
+        MARCFile marcFile = new MARCFile.Builder(file.getPath()).build();
+        RecordIndex index = marcFile.getIndex();
+        assertEquals(3, index.size());
+        assertEquals(0, index.getOffset(0));
+        assertEquals(index.getLength(0), index.getOffset(1));
+        assertEquals(2, index.find("ocm2"));
+        assertEquals(1, index.find("(Sirsi) a1"));
+        assertEquals(-1, index.find("ocm3"));
+        assertEquals("ocm1", marcFile.getRecord("(Sirsi) a1").getTag("001"));
+        assertArrayEquals(new int[] {0, 1, 2, 3}, index.split(0, 3, 3));
+        assertArrayEquals(new int[] {0, 3}, index.split(0, 3, 1));
+        
+        try (FileOutputStream out = new FileOutputStream(file, true))
+        {
+            String[][] fields = {
+                {"001", "ocm3"},
+            };
+            out.write(RecordTest.makeRecord(fields, 0));
+        }
+        index = RecordIndex.open(file.getPath());
+        assertEquals(4, index.size());
+        assertEquals(3, index.find("ocm3"));
+    }
+
+    /**
+     * Test that ranges find the first record that starts in them and fit 
+     * together.
+     */
+    @Test
+    public void testReadRange() throws IOException
+    {
+        System.out.println("==readRange==");
+        File file = File.createTempFile("range", ".mrc");
+        file.deleteOnExit();
+        int[] lengths = new int[3];
+        try (FileOutputStream out = new FileOutputStream(file))
+        {
+            for (int i = 0; i < 3; i++)
+            {
+                String[][] fields = {
+                    {"001", "ocm" + i},
+                    // A record terminator in the data isn't a record start.
+                    {"500", "  ^aNote \u001d00100"},
+                };
+                byte[] record = RecordTest.makeRecord(fields, 0);
+                lengths[i] = record.length;
+                out.write(record);
+            }
+        }
+        MARCFile marcFile = new MARCFile.Builder(file.getPath()).build();
+        MARCFile.Range first = marcFile.readRange(0L, 10L, true);
+        assertEquals(0L, first.getStart());
+        assertEquals(1, first.getRecords().size());
+        assertEquals(lengths[0], first.getEnd());
+        MARCFile.Range second = marcFile.readRange(10L, marcFile.getFileSize(), false);
+        assertEquals(first.getEnd(), second.getStart());
+        assertEquals(2, second.getRecords().size());
+        assertEquals(marcFile.getFileSize(), second.getEnd());
+        assertEquals("ocm2", marcFile.decode(second.getRecords().get(1)).getTag("001"));
+    }
+
+    /**
+     * Test that malformed records are set aside with a reason and reading 
+     * resumes at the next record.
+     */
+    @Test
+    public void testRejectFile() throws IOException
+    {
+        System.out.println("==rejectFile==");
+        File file = File.createTempFile("dirty", ".mrc");
+        file.deleteOnExit();
+        File rejects = File.createTempFile("rejects", ".mrc");
+        rejects.deleteOnExit();
+        File log = new File(RejectFile.getLogName(rejects.getPath()));
+        log.deleteOnExit();
+        byte[][] records = new byte[5][];
+        for (int i = 0; i < records.length; i++)
+        {
+            String[][] fields = {
+                {"001", "ocm" + i},
+                {"500", "  ^aNote"},
+            };
+            records[i] = RecordTest.makeRecord(fields, 0);
+        }
+        // Too long, so it doesn't end with a record terminator.
+        byte[] length = String.format("%05d", records[1].length + 3).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(length, 0, records[1], 0, length.length);
+        // A tag that isn't a number.
+        records[3][Leader.LENGTH + DirectoryEntry.LENGTH] = 'x';
+        // Ends with a record terminator, so the record after it is found.
+        byte[] garbage = "junk\u001dmore\u001d".getBytes(StandardCharsets.US_ASCII);
+        try (FileOutputStream out = new FileOutputStream(file))
+        {
+            out.write(records[0]);
+            out.write(records[1]);
+            out.write(records[2]);
+            out.write(garbage);
+            out.write(records[3]);
+            out.write(records[4]);
+        }
+        MARCFile marcFile = new MARCFile.Builder(file.getPath())
+                .setStrict(true)
+                .setRejectFile(rejects.getPath())
+                .build();
+        List<String> found = new ArrayList<>();
+        for (Record record: marcFile.getRecords())
+        {
+            found.add(record.getTag("001"));
+        }
+        marcFile.close();
+        Record.setStrict(false);
+        assertEquals(Arrays.asList("ocm0", "ocm2", "ocm4"), found);
+        int offset = records[0].length;
+        int garbageOffset = offset + records[1].length + records[2].length;
+        List<String> expLog = Arrays.asList(
+                "offset,ordinal,length,reason",
+                offset + ",1," + records[1].length + ",MISSING_RECORD_TERMINATOR",
+                garbageOffset + ",," + garbage.length + ",INVALID_RECORD_LENGTH",
+                (garbageOffset + garbage.length) + ",3," + records[3].length + ",INVALID_TAG");
+        assertEquals(expLog, Files.readAllLines(log.toPath(), StandardCharsets.UTF_8));
+        assertEquals(records[1].length + garbage.length + records[3].length, rejects.length());
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2016 Andrew.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MARC;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrew
+ */
+public class RecordTest
+{
+    /**
+     * Builds the bytes of a MARC record from pairs of tag and content. Use '^'
+     * for the subfield delimiter.
+     * @param fields tag, content pairs.
+     * @param baseAddressAdjustment amount to add to the correct base address.
+     * @return the record as bytes, including the leader.
+     */
+    static byte[] makeRecord(String[][] fields, int baseAddressAdjustment)
+    {
+        ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (String[] field: fields)
+        {
+            byte[] b = field[1].replace('^', (char)Record.US).getBytes(StandardCharsets.UTF_8);
+            String entry = String.format("%s%04d%05d", field[0], b.length + 1, data.size());
+            directory.write(entry.getBytes(StandardCharsets.US_ASCII), 0, entry.length());
+            data.write(b, 0, b.length);
+            data.write(Record.RS);
+        }
+        directory.write(Record.RS);
+        data.write(Record.GS);
+        int baseAddress = Leader.LENGTH + directory.size();
+        int length = baseAddress + data.size();
+        String leader = String.format("%05dnam a22%05d   4500", length, baseAddress + baseAddressAdjustment);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try
+        {
+            out.write(leader.getBytes(StandardCharsets.US_ASCII));
+            out.write(directory.toByteArray());
+            out.write(data.toByteArray());
+        }
+        catch (IOException e)
+        {
+            fail(e.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    static Record getRecord(byte[] bytes)
+    {
+        Leader leader = new Leader(Arrays.copyOfRange(bytes, 0, Leader.LENGTH));
+        return new Record(leader, Arrays.copyOfRange(bytes, Leader.LENGTH, bytes.length));
+    }
+
+    /**
+     * Test that fields are found with the directory, not by record separators.
+     */
+    @Test
+    public void testDirectoryDecoding()
+    {
+        System.out.println("==directoryDecoding==");
+        String[][] fields = {
+            {"001", "ocm123"},
+            {"245", "10^aStray \u001e separator"},
+            {"856", "40^uhttp://example.com"},
+        };
+        Record record = getRecord(makeRecord(fields, 0));
+        assertEquals(3, record.getTags().size());
+        assertEquals("10$aStray \u001e separator", record.getTag("245"));
+        assertEquals("40$uhttp://example.com", record.getTag("856"));
+    }
+
+    /**
+     * Test that a base address that doesn't match the directory is tolerated.
+     */
+    @Test
+    public void testStaleBaseAddress()
+    {
+        System.out.println("==staleBaseAddress==");
+        String[][] fields = {
+            {"001", "ocm123"},
+            {"035", "  ^a(Sirsi) 123"},
+        };
+        Record record = getRecord(makeRecord(fields, -12));
+        assertEquals("ocm123", record.getTag("001"));
+        assertEquals("  $a(Sirsi) 123", record.getTag("035"));
+    }
+
+    /**
+     * Test that a field outside the record is dropped in relaxed mode.
+     */
+    @Test
+    public void testFieldOutOfRange()
+    {
+        System.out.println("==fieldOutOfRange==");
+        String[][] fields = {
+            {"001", "ocm123"},
+            {"500", "  ^aA note"},
+        };
+        byte[] bytes = makeRecord(fields, 0);
+        // Make the 500's starting position point past the end of the record.
+        int entry = Leader.LENGTH + DirectoryEntry.LENGTH;
+        byte[] badStart = "99999".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(badStart, 0, bytes, entry + 7, badStart.length);
+        Record.setStrict(false);
+        Record record = getRecord(bytes);
+        assertEquals(1, record.getTags().size());
+        assertEquals("", record.getTag("500"));
+    }
+
+    /**
+     * Test that writing a changed record updates the record length and base address.
+     */
+    @Test
+    public void testWrite() throws IOException
+    {
+        System.out.println("==write==");
+        String[][] fields = {
+            {"001", "ocm123"},
+            {"245", "10^aTitle costs $5"},
+        };
+        byte[] bytes = makeRecord(fields, 0);
+        Record record = getRecord(bytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        record.write(out);
+        assertArrayEquals(bytes, out.toByteArray());
+        
+        record.addTag("035", "  $a(Sirsi) 123");
+        String[][] expFields = {
+            {"001", "ocm123"},
+            {"035", "  ^a(Sirsi) 123"},
+            {"245", "10^aTitle costs $5"},
+        };
+        byte[] expResult = makeRecord(expFields, 0);
+        out = new ByteArrayOutputStream();
+        record.write(out);
+        assertArrayEquals(expResult, out.toByteArray());
+        assertEquals(expResult.length, record.getLength());
+    }
+
+    /**
+     * Test that an unchanged record is written exactly as it was read.
+     */
+    @Test
+    public void testPassThrough() throws IOException
+    {
+        System.out.println("==passThrough==");
+        String[][] fields = {
+            {"001", "ocm123"},
+            {"500", "  ^aA note"},
+        };
+        // A stale base address would be corrected if the record was re-encoded.
+        byte[] bytes = makeRecord(fields, -12);
+        Record record = new Record(ByteBuffer.wrap(bytes));
+        assertFalse(record.isModified());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        record.write(out);
+        assertArrayEquals(bytes, out.toByteArray());
+
+        record.removeTags("035");
+        assertFalse(record.isModified());
+        record.removeTags("500");
+        assertTrue(record.isModified());
+        out = new ByteArrayOutputStream();
+        record.write(out);
+        String[][] expFields = {
+            {"001", "ocm123"},
+        };
+        assertArrayEquals(makeRecord(expFields, 0), out.toByteArray());
+    }
+
+    /**
+     * Test that tag lookups stay correct as fields are added and removed.
+     */
+    @Test
+    public void testTagIndex()
+    {
+        System.out.println("==tagIndex==");
+        String[][] fields = {
+            {"001", "ocm123"},
+            {"500", "  ^aFirst note"},
+            {"500", "  ^aSecond note"},
+        };
+        Record record = getRecord(makeRecord(fields, 0));
+        assertTrue(record.hasTag("500"));
+        assertFalse(record.hasTag("856"));
+        assertEquals(2, record.getTags("500").size());
+        
+        record.addTag("856", "40$uhttp://example.com");
+        record.addTag("500", "  $aThird note");
+        assertTrue(record.hasTag("856"));
+        List<DirectoryEntry> notes = record.getTags("500");
+        assertEquals(3, notes.size());
+        assertEquals("  $aThird note", notes.get(2).getContent().toString());
+        
+        record.removeTags("500", "Second");
+        assertEquals(2, record.getTags("500").size());
+        assertEquals("  $aFirst note", record.getTag("500"));
+        // The earlier list is unchanged by the removal.
+        assertEquals(3, notes.size());
+        
+        record.removeTags("500");
+        assertFalse(record.hasTag("500"));
+        assertEquals("", record.getTag("500"));
+        assertEquals(Arrays.asList("001", "856"), record.getTags());
+    }
+
+    /**
+     * Test that fields outside the projection are kept in place when the 
+     * record is changed, and are still found by lookups.
+     */
+    @Test
+    public void testProjection() throws IOException
+    {
+        System.out.println("==projection==");
+        String[][] fields = {
+            {"001", "ocm123"},
+            {"856", "40^uhttp://example.com/1"},
+            {"500", "  ^aA note \u00e9"},
+            {"856", "40^uhttp://example.com/2"},
+        };
+        BitSet projection = new BitSet();
+        projection.set(856);
+        Record record = new Record(ByteBuffer.wrap(makeRecord(fields, 0)), projection);
+        assertTrue(record.hasTag("500"));
+        assertTrue(record.containsMultilingualCharacters());
+        record.removeTags("856", "/2");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        record.write(out);
+        String[][] expFields = {
+            {"001", "ocm123"},
+            {"856", "40^uhttp://example.com/1"},
+            {"500", "  ^aA note \u00e9"},
+        };
+        assertArrayEquals(makeRecord(expFields, 0), out.toByteArray());
+        
+        assertEquals("  $aA note \u00e9", record.getTag("500"));
+        assertEquals(Arrays.asList("001", "856", "500"), record.getTags());
+        out = new ByteArrayOutputStream();
+        record.write(out);
+        assertArrayEquals(makeRecord(expFields, 0), out.toByteArray());
+    }
+
+    /**
+     * Test that ordering fields sorts by tag and keeps fields with the same tag in order.
+     */
+    @Test
+    public void testOrderFields()
+    {
+        System.out.println("==orderFields==");
+        String[][] fields = {
+            {"856", "40^uhttp://example.com/1"},
+            {"001", "ocm123"},
+            {"856", "40^uhttp://example.com/2"},
+            {"035", "  ^a(Sirsi) 123"},
+        };
+        Record record = new Record(ByteBuffer.wrap(makeRecord(fields, 0)));
+        record.orderFields();
+        assertTrue(record.isModified());
+        assertEquals(Arrays.asList("001", "035", "856", "856"), record.getTags());
+        List<DirectoryEntry> urls = record.getTags(Tag.valueOf("856"));
+        assertEquals("40$uhttp://example.com/1", urls.get(0).getContent().toString());
+        assertEquals("40$uhttp://example.com/2", urls.get(1).getContent().toString());
+        // Fields already in order aren't a change.
+        record = new Record(ByteBuffer.wrap(makeRecord(new String[][] {fields[1], fields[3], fields[0]}, 0)));
+        record.orderFields();
+        assertFalse(record.isModified());
+    }
+}
@@ -78,5 +78,20 @@ public class TagTest {
         otherInstance = new Tag("900");
         assertFalse(instance.compareTo(otherInstance) == 0);
     }
-    
+
+    /**
+     * Test of valueOf method, of class Tag.
+     */
+    @Test
+    public void testValueOf() 
+    {
+        System.out.println("==valueOf==");
+        Tag instance = Tag.valueOf("035");
+        assertSame(instance, Tag.valueOf(35));
+        assertEquals(35, instance.getCode());
+        assertEquals("035", instance.toString());
+        assertEquals(new Tag("035"), instance);
+        assertTrue(instance.isTag(35));
+        assertFalse(instance.isTag("not a tag"));
+    }
 }
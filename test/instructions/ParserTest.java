@@ -15,6 +15,11 @@
  */
 package instructions;
 
+import MARC.Record;
+import MARC.RecordFilter;
+import MARC.Tag;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -69,5 +74,227 @@ public class ParserTest
             System.out.printf("6>%s<<\n", s);
         }
     }
-    
+
+    /**
+     * Test that instructions that print or write records are not run in parallel.
+     */
+    @Test
+    public void testIsPerRecord() throws Parser.SyntaxError
+    {
+        System.out.println("==isPerRecord==");
+        Parser instance = new Parser(false);
+        assertTrue(instance.getInstruction(Parser.readQuotedTokens("245 append X")).isPerRecord());
+        assertTrue(instance.getInstruction(Parser.readQuotedTokens("035 if 5 == S then 035 set 5 = p")).isPerRecord());
+        assertFalse(instance.getInstruction(Parser.readQuotedTokens("008 print")).isPerRecord());
+        assertFalse(instance.getInstruction(Parser.readQuotedTokens("008 if 23 == s then 008 print")).isPerRecord());
+        assertFalse(instance.getInstruction(Parser.readQuotedTokens("records write out.mrc as binary")).isPerRecord());
+    }
+
+    /**
+     * Test that only the instructions before the first that depends on other
+     * records can run on many records at once.
+     */
+    @Test
+    public void testParallelCount() throws Parser.SyntaxError
+    {
+        System.out.println("==parallelCount==");
+        Parser instance = new Parser(false);
+        List<Instruction> instructions = new ArrayList<>();
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("245 append X")));
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("035 if 5 == S then 035 set 5 = p")));
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("008 if 23 == s then 008 print")));
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("500 add A note")));
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("records write out.mrc as binary")));
+        assertEquals(2, Parser.getParallelCount(instructions));
+        assertEquals(0, Parser.getParallelCount(instructions.subList(2, instructions.size())));
+        assertEquals(1, Parser.getParallelCount(instructions.subList(3, instructions.size())));
+    }
+
+    /**
+     * Test that consecutive instructions on the same tag are grouped.
+     */
+    @Test
+    public void testExecutionPlan() throws Parser.SyntaxError
+    {
+        System.out.println("==executionPlan==");
+        Parser instance = new Parser(false);
+        List<Instruction> instructions = new ArrayList<>();
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("856 url_decode u")));
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("856 delete matching ebsco")));
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("035 if 5 == S then 035 set 5 = p")));
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("500 add A note")));
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("590 add Another note")));
+        // Decoding reports records without the tag, so it always runs.
+        assertNull(instructions.get(0).getGuardTag());
+        assertEquals("856", instructions.get(1).getGuardTag().toString());
+        assertNull(instructions.get(3).getGuardTag());
+        ExecutionPlan plan = new ExecutionPlan(instructions, 0, instructions.size());
+        assertEquals(4, plan.getGroupCount());
+    }
+
+    /**
+     * Instruction that notes its name when it runs.
+     */
+    private static class Recorder extends Instruction
+    {
+        private final String name;
+        private final Tag guard;
+        private final List<String> log;
+
+        Recorder(String name, String guard, List<String> log)
+        {
+            this.name  = name;
+            this.guard = guard == null ? null : Tag.valueOf(guard);
+            this.log   = log;
+        }
+
+        @Override
+        public void setRecord(Record record)
+        {
+        }
+
+        @Override
+        public boolean run()
+        {
+            this.log.add(this.name);
+            return true;
+        }
+
+        @Override
+        public Tag getGuardTag()
+        {
+            return this.guard;
+        }
+    }
+
+    /**
+     * Test that a group is skipped on records without its tag, and that the
+     * other instructions run in the order of the script.
+     */
+    @Test
+    public void testExecutionPlanRun()
+    {
+        System.out.println("==executionPlanRun==");
+        List<String> log = new ArrayList<>();
+        List<Instruction> instructions = new ArrayList<>();
+        instructions.add(new Recorder("a", "245", log));
+        instructions.add(new Recorder("b", "856", log));
+        instructions.add(new Recorder("c", "856", log));
+        instructions.add(new Recorder("d", null, log));
+        instructions.add(new Recorder("e", "245", log));
+        instructions.add(new Recorder("f", "856", log));
+        instructions.add(new Recorder("g", "500", log));
+        ExecutionPlan plan = new ExecutionPlan(instructions, 0, instructions.size());
+        assertEquals(6, plan.getGroupCount());
+        // The record has a 245 and a 500 but no 856.
+        plan.run(new Record(ByteBuffer.wrap(PipelineTest.makeRecord(1))));
+        assertEquals(Arrays.asList("a", "d", "e", "g"), log);
+        
+        log.clear();
+        new ExecutionPlan(instructions, 3, 6).run(new Record(ByteBuffer.wrap(PipelineTest.makeRecord(2))));
+        assertEquals(Arrays.asList("d", "e"), log);
+    }
+
+    /**
+     * Test that leader tests and language filters become record filters only
+     * where skipping the records they reject changes nothing.
+     */
+    @Test
+    public void testGetRecordFilter() throws Parser.SyntaxError
+    {
+        System.out.println("==getRecordFilter==");
+        Parser instance = new Parser(false);
+        List<Instruction> instructions = new ArrayList<>();
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("leader if 6 == a then record touch")));
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("records write out.mrc as binary")));
+        RecordFilter filter = Parser.getRecordFilter(instructions, true);
+        assertNotNull(filter);
+        ByteBuffer leader = ByteBuffer.wrap("00100nam a2200037   4500".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(filter.accept(leader));
+        leader.put(6, (byte)'g');
+        assertFalse(filter.accept(leader));
+        
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("245 append X")));
+        assertNull(Parser.getRecordFilter(instructions, true));
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("language filter eng")));
+        // The append could still select records the filter rejects.
+        assertNull(Parser.getRecordFilter(instructions, true));
+        assertNull(Parser.getRecordFilter(instructions, false));
+    }
+
+    /**
+     * Makes a record's bytes from tag and content pairs.
+     */
+    private static ByteBuffer makeRecord(String... fields)
+    {
+        StringBuilder directory = new StringBuilder();
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < fields.length; i += 2)
+        {
+            directory.append(String.format("%s%04d%05d", fields[i], fields[i + 1].length() + 1, data.length()));
+            data.append(fields[i + 1]).append('\u001e');
+        }
+        directory.append('\u001e');
+        int baseAddress = 24 + directory.length();
+        String record = String.format("%05dnam a22%05d   4500", baseAddress + data.length() + 1, baseAddress)
+                + directory + data + "\u001d";
+        return ByteBuffer.wrap(record.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Test that position tests of control fields are tested in the reader,
+     * and tests of data fields aren't.
+     */
+    @Test
+    public void testFieldRecordFilter() throws Parser.SyntaxError
+    {
+        System.out.println("==fieldRecordFilter==");
+        Parser instance = new Parser(false);
+        String english = "850423s1984    ne a          000 0 eng d";
+        String french  = "850423s1984    ne a          000 0 fre d";
+        List<Instruction> instructions = new ArrayList<>();
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("008 if 35 == e then record touch")));
+        RecordFilter filter = Parser.getRecordFilter(instructions, true);
+        assertNotNull(filter);
+        assertTrue(filter.accept(makeRecord("001", "ocm1", "008", english)));
+        assertFalse(filter.accept(makeRecord("001", "ocm1", "008", french)));
+        assertFalse(filter.accept(makeRecord("001", "ocm1")));
+        // Like the instruction, any of the fields may match.
+        assertTrue(filter.accept(makeRecord("008", french, "008", english)));
+        
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("leader if 6 == g then record touch")));
+        filter = Parser.getRecordFilter(instructions, true);
+        assertTrue(filter.accept(makeRecord("008", english)));
+        assertFalse(filter.accept(makeRecord("008", french)));
+        
+        instructions.clear();
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("245 if 0 == 1 then record touch")));
+        assertNull(Parser.getRecordFilter(instructions, true));
+        instructions.clear();
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("008 if 35 == e then record touch else 500 append X")));
+        assertNull(Parser.getRecordFilter(instructions, true));
+    }
+
+    /**
+     * Test that a language filter only skips records in the reader when
+     * nothing else in the script can select or print them.
+     */
+    @Test
+    public void testLanguageRecordFilter() throws Parser.SyntaxError
+    {
+        System.out.println("==languageRecordFilter==");
+        Parser instance = new Parser(false);
+        List<Instruction> instructions = new ArrayList<>();
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("language filter eng")));
+        instructions.add(instance.getInstruction(Parser.readQuotedTokens("records write out.mrc as binary")));
+        assertNotNull(Parser.getRecordFilter(instructions, true));
+        assertNull(Parser.getRecordFilter(instructions, false));
+        
+        for (String edit: new String[] {"500 delete", "245 append X", "245 print"})
+        {
+            List<Instruction> edited = new ArrayList<>(instructions);
+            edited.add(1, instance.getInstruction(Parser.readQuotedTokens(edit)));
+            assertNull(Parser.getRecordFilter(edited, true));
+        }
+    }
 }
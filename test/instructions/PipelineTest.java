@@ -0,0 +1,330 @@
+/*
+ * Copyright 2016 Andrew.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package instructions;
+
+import MARC.MARCFile;
+import MARC.Record;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs a generated file through the interpreter on one thread and through the
+ * pipeline, and checks they write the same records.
+ * @author Andrew
+ */
+public class PipelineTest
+{
+    private final static int RECORDS = 300;
+    private File marcFile;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.marcFile = File.createTempFile("pipeline", ".mrc");
+        this.marcFile.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(this.marcFile))
+        {
+            for (int i = 0; i < RECORDS; i++)
+            {
+                out.write(makeRecord(i));
+            }
+        }
+        Environment.setMarcFile(this.marcFile.getPath());
+    }
+
+    @After
+    public void tearDown()
+    {
+        Environment.setThreads(0);
+        Environment.setUnordered(false);
+    }
+
+    /**
+     * Makes a record with a control number, a title and a note whose length
+     * varies, so records take different times to edit.
+     * @param i number of the record.
+     * @return bytes of the record.
+     */
+    static byte[] makeRecord(int i)
+    {
+        StringBuilder note = new StringBuilder("  \u001faNote");
+        for (int n = 0; n < i % 7; n++)
+        {
+            note.append(" and more");
+        }
+        String[][] fields = {
+            {"001", "ocm" + i},
+            {"245", "10\u001faTitle " + i},
+            {"500", note.toString()},
+        };
+        StringBuilder directory = new StringBuilder();
+        StringBuilder data = new StringBuilder();
+        for (String[] field: fields)
+        {
+            directory.append(String.format("%s%04d%05d", field[0], field[1].length() + 1, data.length()));
+            data.append(field[1]).append('\u001e');
+        }
+        directory.append('\u001e');
+        int baseAddress = 24 + directory.length();
+        int length = baseAddress + data.length() + 1;
+        String record = String.format("%05dnam a22%05d   4500", length, baseAddress)
+                + directory + data + "\u001d";
+        return record.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Runs a script that edits every record and writes it.
+     * @param threads worker threads, 0 to run on this thread.
+     * @param isUnordered true to let records be written as they finish.
+     * @return bytes written.
+     */
+    private byte[] run(int threads, boolean isUnordered) throws IOException
+    {
+        return this.run(threads, isUnordered, false);
+    }
+
+    /**
+     * Runs a script that edits every record and writes it, or writes the 
+     * record as it was read first.
+     * @param threads worker threads, 0 to run on this thread.
+     * @param isUnordered true to let records be written as they finish.
+     * @param isWriteFirst true if the script starts by writing each record.
+     * @return bytes written by the last instruction.
+     */
+    private byte[] run(int threads, boolean isUnordered, boolean isWriteFirst) throws IOException
+    {
+        File out = File.createTempFile("pipeline", ".out.mrc");
+        out.deleteOnExit();
+        File first = File.createTempFile("pipeline", ".first.mrc");
+        first.deleteOnExit();
+        File script = File.createTempFile("pipeline", ".cmd");
+        script.deleteOnExit();
+        List<String> lines = new ArrayList<>();
+        if (isWriteFirst)
+        {
+            lines.add("record write " + first.getPath() + " as binary");
+        }
+        lines.add("500 append edited");
+        lines.add("245 pre-pend A");
+        lines.add("records write " + out.getPath() + " as binary");
+        Files.write(script.toPath(), lines, StandardCharsets.UTF_8);
+        Environment.setThreads(threads);
+        Environment.setUnordered(isUnordered);
+        int written = Environment.getWrittenRecords();
+        new Interpreter(script.getPath()).runInstructions();
+        assertEquals(isWriteFirst ? 2 * RECORDS : RECORDS, Environment.getWrittenRecords() - written);
+        return Files.readAllBytes(out.toPath());
+    }
+
+    /**
+     * Splits written bytes into records.
+     * @param bytes the file.
+     * @return each record as a string, in file order.
+     */
+    private static List<String> split(byte[] bytes)
+    {
+        List<String> records = new ArrayList<>();
+        String all = new String(bytes, StandardCharsets.ISO_8859_1);
+        int start = 0;
+        for (int end = all.indexOf('\u001d'); end >= 0; end = all.indexOf('\u001d', start))
+        {
+            records.add(all.substring(start, end + 1));
+            start = end + 1;
+        }
+        assertEquals(all.length(), start);
+        return records;
+    }
+
+    /**
+     * Test that worker threads write the records the serial run writes, in
+     * the same order.
+     */
+    @Test(timeout = 60000)
+    public void testOrdered() throws IOException
+    {
+        System.out.println("==ordered==");
+        byte[] serial = this.run(0, false);
+        assertEquals(RECORDS, split(serial).size());
+        assertTrue(new String(serial, StandardCharsets.ISO_8859_1).contains("edited"));
+        assertArrayEquals(serial, this.run(1, false));
+        assertArrayEquals(serial, this.run(4, false));
+    }
+
+    /**
+     * Test that a script whose first instruction writes runs on one thread,
+     * and writes what the serial run writes.
+     */
+    @Test(timeout = 60000)
+    public void testWriteFirst() throws IOException
+    {
+        System.out.println("==writeFirst==");
+        assertArrayEquals(this.run(0, false, true), this.run(4, true, true));
+    }
+
+    /**
+     * Test that unordered output has every record exactly once.
+     */
+    @Test(timeout = 60000)
+    public void testUnordered() throws IOException
+    {
+        System.out.println("==unordered==");
+        List<String> serial = split(this.run(0, false));
+        Collections.sort(serial);
+        for (int threads: new int[] {1, 4})
+        {
+            List<String> records = split(this.run(threads, true));
+            Collections.sort(records);
+            assertEquals(serial, records);
+        }
+    }
+
+    /**
+     * Instruction that notes the control number of each record it sees, and
+     * takes a while if asked to.
+     */
+    private static class Collector extends Instruction
+    {
+        private final List<String> seen = Collections.synchronizedList(new ArrayList<>());
+        private final long millis;
+        private Record record;
+
+        Collector(long millis)
+        {
+            this.millis = millis;
+        }
+
+        @Override
+        public void setRecord(Record record)
+        {
+            this.record = record;
+        }
+
+        @Override
+        public boolean run()
+        {
+            this.seen.add(this.record.getTag("001"));
+            try
+            {
+                Thread.sleep(this.millis);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isPerRecord()
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Test that workers that get ahead of a slow writer wait for it rather
+     * than overwrite records it hasn't taken, with far more records than the
+     * ring holds.
+     */
+    @Test(timeout = 60000)
+    public void testSlowWriter()
+    {
+        System.out.println("==slowWriter==");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < RECORDS; i++)
+        {
+            expected.add("ocm" + i);
+        }
+        for (boolean isUnordered: new boolean[] {false, true})
+        {
+            MARCFile file = new MARCFile.Builder(this.marcFile.getPath()).build();
+            List<ExecutionPlan> workerPlans = new ArrayList<>();
+            for (int t = 0; t < 4; t++)
+            {
+                workerPlans.add(new ExecutionPlan(Collections.emptyList(), 0, 0));
+            }
+            Collector writer = new Collector(1L);
+            new Pipeline(file, workerPlans,
+                    new ExecutionPlan(Arrays.asList(writer), 0, 1), isUnordered).run();
+            List<String> seen = new ArrayList<>(writer.seen);
+            if (isUnordered)
+            {
+                Collections.sort(seen);
+                Collections.sort(expected);
+            }
+            assertEquals(expected, seen);
+        }
+    }
+
+    /**
+     * Test that an exception on a worker stops the run and reaches the caller.
+     */
+    @Test(timeout = 60000)
+    public void testWorkerFailure()
+    {
+        System.out.println("==workerFailure==");
+        Instruction failing = new Instruction()
+        {
+            private Record record;
+
+            @Override
+            public void setRecord(Record record)
+            {
+                this.record = record;
+            }
+
+            @Override
+            public boolean run()
+            {
+                if (this.record.getTag("001").equals("ocm100"))
+                {
+                    throw new IllegalStateException("worker failed");
+                }
+                return true;
+            }
+        };
+        MARCFile file = new MARCFile.Builder(this.marcFile.getPath()).build();
+        List<ExecutionPlan> workerPlans = new ArrayList<>();
+        for (int t = 0; t < 4; t++)
+        {
+            workerPlans.add(new ExecutionPlan(Arrays.asList(failing), 0, 1));
+        }
+        Collector writer = new Collector(0L);
+        try
+        {
+            new Pipeline(file, workerPlans, new ExecutionPlan(Arrays.asList(writer), 0, 1), false).run();
+            fail("the worker's exception wasn't thrown");
+        }
+        catch (IllegalStateException e)
+        {
+            assertEquals("worker failed", e.getMessage());
+        }
+        // Records after the failed one never reach the writer.
+        assertFalse(writer.seen.contains("ocm100"));
+        assertTrue(writer.seen.size() <= 100);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016 anisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package instructions;
+
+import MARC.DirtyRecord;
+import MARC.Record;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anisbet
+ */
+public class TestURLTest
+{
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * Starts a local stand-in for the sites the links point to. Each page
+     * takes a while, and pages under /gone say they weren't found.
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", exchange -> 
+        {
+            this.requests.incrementAndGet();
+            this.maxInFlight.accumulateAndGet(this.inFlight.incrementAndGet(), Math::max);
+            try
+            {
+                Thread.sleep(200L);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            this.inFlight.decrementAndGet();
+            String page = exchange.getRequestURI().getPath().startsWith("/gone") 
+                    ? "<html>page not found</html>" : "<html>welcome</html>";
+            byte[] body = page.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        });
+        this.serverThreads = Executors.newCachedThreadPool();
+        this.server.setExecutor(this.serverThreads);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.server.stop(0);
+        this.serverThreads.shutdownNow();
+        Environment.setOutputOnChangeOnly(false);
+        Environment.setDebug(false);
+    }
+
+    /**
+     * Makes a record with a control number, French fixed-length data and a link.
+     * @param url the link.
+     * @return the record.
+     */
+    private static DirtyRecord makeRecord(String url)
+    {
+        String[] tags = {"001", "008", "856"};
+        String[] data = {
+            "ocm1\u001e",
+            "160101s2016    xx            000 0 fre d\u001e",
+            "40\u001fu" + url + "\u001e",
+        };
+        StringBuilder directory = new StringBuilder();
+        StringBuilder fields = new StringBuilder();
+        for (int i = 0; i < tags.length; i++)
+        {
+            directory.append(String.format("%s%04d%05d", tags[i], data[i].length(), fields.length()));
+            fields.append(data[i]);
+        }
+        directory.append('\u001e');
+        int baseAddress = 24 + directory.length();
+        int length = baseAddress + fields.length() + 1;
+        String record = String.format("%05dnam a22%05d   4500", length, baseAddress) + directory 
+                + fields + "\u001d";
+        return new DirtyRecord(ByteBuffer.wrap(record.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Test that links are checked at the same time and each record gets its
+     * own result once it finishes its pending checks.
+     */
+    @Test
+    public void testConcurrentChecks() throws Parser.SyntaxError
+    {
+        System.out.println("==concurrentChecks==");
+        Environment.setOutputOnChangeOnly(true);
+        String site = "http://127.0.0.1:" + this.server.getAddress().getPort();
+        Instruction test = new Parser(false).getInstruction(
+                Parser.readQuotedTokens("856 test url \"not found\""));
+        assertTrue(test.isDeferred());
+        // Records without the tag are tested, and reported, too.
+        assertNull(test.getGuardTag());
+        List<DirtyRecord> records = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+        {
+            DirtyRecord record = makeRecord(site + (i == 2 ? "/gone/" : "/ok/") + i);
+            test.setRecord(record);
+            test.run();
+            records.add(record);
+        }
+        for (DirtyRecord record: records)
+        {
+            // Nothing is applied until the record finishes its checks.
+            assertFalse(record.isDirty());
+            record.finishPending();
+        }
+        for (int i = 0; i < records.size(); i++)
+        {
+            assertEquals(i != 2, records.get(i).isDirty());
+        }
+        assertTrue(this.maxInFlight.get() > 1);
+    }
+
+    /**
+     * Test that a filter after the test has the last say on the dirty bit.
+     */
+    @Test
+    public void testFilterAfterTest() throws Parser.SyntaxError
+    {
+        System.out.println("==filterAfterTest==");
+        Environment.setOutputOnChangeOnly(true);
+        String site = "http://127.0.0.1:" + this.server.getAddress().getPort();
+        Parser parser = new Parser(false);
+        Instruction test = parser.getInstruction(Parser.readQuotedTokens("856 test url \"not found\""));
+        Instruction filter = parser.getInstruction(Parser.readQuotedTokens("language filter eng"));
+        DirtyRecord record = makeRecord(site + "/ok/0");
+        test.setRecord(record);
+        test.run();
+        filter.setRecord(record);
+        assertFalse(filter.run());
+        record.finishPending();
+        assertFalse(record.isDirty());
+    }
+
+    /**
+     * Test that debug mode reports a failed test once its result is known.
+     */
+    @Test
+    public void testDebugFailure() throws Parser.SyntaxError
+    {
+        System.out.println("==debugFailure==");
+        Environment.setDebug(true);
+        String site = "http://127.0.0.1:" + this.server.getAddress().getPort();
+        Instruction test = new Parser(false).getInstruction(
+                Parser.readQuotedTokens("856 test url \"not found\""));
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        try
+        {
+            for (String path: new String[] {"/gone/1", "/ok/1"})
+            {
+                DirtyRecord record = makeRecord(site + path);
+                test.setRecord(record);
+                assertTrue(test.run());
+                record.finishPending();
+            }
+        }
+        finally
+        {
+            System.setOut(stdout);
+        }
+        String out = new String(captured.toByteArray(), StandardCharsets.UTF_8);
+        String fail = String.format("fail: '%s'", test.toString());
+        assertEquals(1, out.split(Pattern.quote(fail), -1).length - 1);
+    }
+
+    /**
+     * Test that prefetched links are checked once each, and that records
+     * find their answers waiting when they are run.
+     */
+    @Test
+    public void testPrefetch() throws Parser.SyntaxError
+    {
+        System.out.println("==prefetch==");
+        Environment.setOutputOnChangeOnly(true);
+        String site = "http://127.0.0.1:" + this.server.getAddress().getPort();
+        Instruction test = new Parser(false).getInstruction(
+                Parser.readQuotedTokens("856 test url \"not found\""));
+        List<TestURL> tests = new ArrayList<>();
+        test.addURLTests(tests);
+        assertEquals(1, tests.size());
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < 12; i++)
+        {
+            records.add(makeRecord(site + (i % 4 == 2 ? "/gone/" : "/ok/") + (i % 4)));
+        }
+        assertEquals(4, TestURL.prefetch(records, tests));
+        assertEquals(4, this.requests.get());
+        for (Record record: records)
+        {
+            test.setRecord(record);
+            test.run();
+            record.finishPending();
+        }
+        // Every answer was waiting, no page was fetched again.
+        assertEquals(4, this.requests.get());
+        for (int i = 0; i < records.size(); i++)
+        {
+            assertEquals(i % 4 != 2, ((DirtyRecord)records.get(i)).isDirty());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Andrew.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package instructions;
+
+import MARC.Record;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrew
+ */
+public class WriteFileTest
+{
+    /**
+     * Makes a name for an output file that doesn't exist yet.
+     */
+    private static File makeOutputFile() throws IOException
+    {
+        File file = File.createTempFile("write", ".mrc");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static Record makeRecord(int i)
+    {
+        return new Record(ByteBuffer.wrap(PipelineTest.makeRecord(i)));
+    }
+
+    private static String read(File file) throws IOException
+    {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Test that the file is created, empty, when no records are written.
+     */
+    @Test
+    public void testNoRecords() throws Parser.SyntaxError, IOException
+    {
+        System.out.println("==noRecords==");
+        for (String mode: new String[] {"record", "records"})
+        {
+            File out = makeOutputFile();
+            Instruction write = new Parser(false).getInstruction(
+                    Parser.readQuotedTokens(mode + " write " + out.getPath() + " as binary"));
+            assertTrue(write.setFinalize());
+            assertTrue(out.isFile());
+            assertEquals(0L, out.length());
+        }
+    }
+
+    /**
+     * Test that every record ends up in the file, which it wouldn't if the
+     * file were opened, and emptied, more than once. 'records write' writes
+     * a record once the next one arrives, so changes made to it after the
+     * write instruction ran are in the file.
+     */
+    @Test
+    public void testPendingRecord() throws Parser.SyntaxError, IOException
+    {
+        System.out.println("==pendingRecord==");
+        File out = makeOutputFile();
+        Parser parser = new Parser(false);
+        Instruction write = parser.getInstruction(
+                Parser.readQuotedTokens("records write " + out.getPath() + " as binary"));
+        Instruction edit = parser.getInstruction(Parser.readQuotedTokens("500 append edited"));
+        int written = Environment.getWrittenRecords();
+        for (int i = 0; i < 3; i++)
+        {
+            Record record = makeRecord(i);
+            write.setRecord(record);
+            assertTrue(write.run());
+            // Only the records before this one have been written.
+            assertEquals(i, Environment.getWrittenRecords() - written);
+            // Runs after the write instruction.
+            edit.setRecord(record);
+            edit.run();
+        }
+        assertTrue(write.setFinalize());
+        assertEquals(3, Environment.getWrittenRecords() - written);
+        String file = read(out);
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(file.contains("ocm" + i));
+        }
+        assertEquals(3, file.split("edited", -1).length - 1);
+    }
+
+    /**
+     * Test that two write instructions in a script each write their own file.
+     */
+    @Test
+    public void testTwoFiles() throws IOException
+    {
+        System.out.println("==twoFiles==");
+        File marcFile = File.createTempFile("write", ".mrc");
+        marcFile.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(marcFile))
+        {
+            for (int i = 0; i < 5; i++)
+            {
+                out.write(PipelineTest.makeRecord(i));
+            }
+        }
+        File before = makeOutputFile();
+        File after = makeOutputFile();
+        File script = File.createTempFile("write", ".cmd");
+        script.deleteOnExit();
+        Files.write(script.toPath(), Arrays.asList(
+                "record write " + before.getPath() + " as binary",
+                "500 append edited",
+                "records write " + after.getPath() + " as binary"), StandardCharsets.UTF_8);
+        Environment.setMarcFile(marcFile.getPath());
+        new Interpreter(script.getPath()).runInstructions();
+        assertArrayEquals(Files.readAllBytes(marcFile.toPath()), Files.readAllBytes(before.toPath()));
+        String edited = read(after);
+        assertTrue(edited.contains("ocm4"));
+        assertEquals(5, edited.split("edited", -1).length - 1);
+    }
+}
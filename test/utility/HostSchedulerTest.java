@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 anisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utility;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anisbet
+ */
+public class HostSchedulerTest
+{
+    private ExecutorService executor;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger ran = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    @Before
+    public void setUp()
+    {
+        this.executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Makes a check that counts down a latch when it's done.
+     * @param gate the check waits for the gate to open, or null to finish at once.
+     * @param isAnswered what the check returns.
+     * @param done counted down when the check runs or is skipped, or null.
+     * @return the check.
+     */
+    private HostScheduler.Job makeJob(CountDownLatch gate, boolean isAnswered, CountDownLatch done)
+    {
+        return new HostScheduler.Job()
+        {
+            @Override
+            public boolean run()
+            {
+                HostSchedulerTest.this.maxRunning.accumulateAndGet(
+                        HostSchedulerTest.this.running.incrementAndGet(), Math::max);
+                try
+                {
+                    if (gate != null)
+                    {
+                        gate.await();
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                HostSchedulerTest.this.running.decrementAndGet();
+                HostSchedulerTest.this.ran.incrementAndGet();
+                if (done != null)
+                {
+                    done.countDown();
+                }
+                return isAnswered;
+            }
+
+            @Override
+            public void skip()
+            {
+                HostSchedulerTest.this.skipped.incrementAndGet();
+                if (done != null)
+                {
+                    done.countDown();
+                }
+            }
+        };
+    }
+
+    /**
+     * Test that a slow host's links wait for each other but not for other hosts.
+     */
+    @Test
+    public void testPerHostLimit() throws InterruptedException
+    {
+        System.out.println("==perHostLimit==");
+        HostScheduler hosts = new HostScheduler(2, 0, 0, HostScheduler.DEFAULT_COOLDOWN);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch slow = new CountDownLatch(6);
+        for (int i = 0; i < 6; i++)
+        {
+            hosts.submit("slow.example.com", this.makeJob(gate, true, slow), this.executor);
+        }
+        // The slow host's checks are all stuck, the other host's isn't.
+        CountDownLatch fast = new CountDownLatch(1);
+        hosts.submit("fast.example.com", this.makeJob(null, true, fast), this.executor);
+        assertTrue(fast.await(5, TimeUnit.SECONDS));
+        assertEquals(6, slow.getCount());
+        gate.countDown();
+        assertTrue(slow.await(5, TimeUnit.SECONDS));
+        assertTrue(this.maxRunning.get() <= 3);
+        assertEquals(7, this.ran.get());
+        hosts.shutdown();
+    }
+
+    /**
+     * Test that checks of a host's links start no faster than the rate.
+     */
+    @Test
+    public void testRate()
+    {
+        System.out.println("==rate==");
+        AtomicLong now = new AtomicLong();
+        HostScheduler hosts = new HostScheduler(4, 20, 0, HostScheduler.DEFAULT_COOLDOWN, now::get);
+        // Checks run as they start, and each submit starts what it can.
+        Executor direct = Runnable::run;
+        for (int i = 0; i < 5; i++)
+        {
+            hosts.submit("example.com", this.makeJob(null, true, null), direct);
+        }
+        assertEquals(1, this.ran.get());
+        now.set(TimeUnit.MILLISECONDS.toNanos(40));
+        hosts.submit("example.com", this.makeJob(null, true, null), direct);
+        assertEquals(1, this.ran.get());
+        // One start every 50ms.
+        now.set(TimeUnit.MILLISECONDS.toNanos(50));
+        hosts.submit("example.com", this.makeJob(null, true, null), direct);
+        assertEquals(2, this.ran.get());
+        now.set(TimeUnit.SECONDS.toNanos(1));
+        hosts.submit("example.com", this.makeJob(null, true, null), direct);
+        assertEquals(3, this.ran.get());
+        hosts.shutdown();
+    }
+
+    /**
+     * Test that a failing host's links are skipped, and checked again once
+     * a retry works.
+     */
+    @Test
+    public void testFailingHost()
+    {
+        System.out.println("==failingHost==");
+        AtomicLong now = new AtomicLong();
+        HostScheduler hosts = new HostScheduler(1, 0, 3, 200L, now::get);
+        Executor direct = Runnable::run;
+        for (int i = 0; i < 10; i++)
+        {
+            hosts.submit("down.example.com", this.makeJob(null, false, null), direct);
+        }
+        assertEquals(3, this.ran.get());
+        assertEquals(7, this.skipped.get());
+
+        // Still skipped during the cooldown.
+        now.set(TimeUnit.MILLISECONDS.toNanos(150));
+        hosts.submit("down.example.com", this.makeJob(null, true, null), direct);
+        assertEquals(8, this.skipped.get());
+
+        now.set(TimeUnit.MILLISECONDS.toNanos(250));
+        for (int i = 0; i < 3; i++)
+        {
+            hosts.submit("down.example.com", this.makeJob(null, true, null), direct);
+        }
+        assertEquals(6, this.ran.get());
+        assertEquals(8, this.skipped.get());
+        hosts.shutdown();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 anisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utility;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anisbet
+ */
+public class LinkCheckerTest
+{
+    private final static String ETAG = "\"v1\"";
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private String base;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    /**
+     * Starts a local stand-in for a site. Pages under /gone say they weren't
+     * found, and every page has the same ETag so a revalidation is answered
+     * with 304.
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", exchange -> 
+        {
+            this.requests.incrementAndGet();
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+            {
+                this.notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            try
+            {
+                Thread.sleep(100L);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            String page = exchange.getRequestURI().getPath().startsWith("/gone") 
+                    ? "<html>page not found</html>" : "<html>welcome</html>";
+            byte[] body = page.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        });
+        this.serverThreads = Executors.newCachedThreadPool();
+        this.server.setExecutor(this.serverThreads);
+        this.server.start();
+        this.base = "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.server.stop(0);
+        this.serverThreads.shutdownNow();
+    }
+
+    /**
+     * Test that spellings of the same link share a cache entry.
+     */
+    @Test
+    public void testNormalize()
+    {
+        System.out.println("==normalize==");
+        assertEquals("http://example.com/", URLCache.normalize(" HTTP://Example.COM:80 "));
+        assertEquals("https://example.com/a?b=1", URLCache.normalize("https://example.com:443/a?b=1#top"));
+        assertEquals("http://example.com:8080/A", URLCache.normalize("http://example.com:8080/A"));
+        assertEquals("not a url", URLCache.normalize("not a url"));
+    }
+
+    /**
+     * Test that a link is fetched once however many records share it.
+     */
+    @Test
+    public void testSharedLink() throws Exception
+    {
+        System.out.println("==sharedLink==");
+        LinkChecker checker = new LinkChecker(4);
+        Future<LinkChecker.Outcome> first = checker.contains(this.base + "/gone/1", "page not found");
+        Future<LinkChecker.Outcome> second = checker.contains(this.base + "/gone/1#again", "page not found");
+        assertEquals(LinkChecker.Outcome.FOUND, first.get());
+        assertEquals(LinkChecker.Outcome.FOUND, second.get());
+        assertEquals(LinkChecker.Outcome.FOUND, checker.contains(this.base.toUpperCase() + "/gone/1", "page not found").get());
+        assertEquals(LinkChecker.Outcome.NOT_FOUND, checker.contains(this.base + "/ok", "page not found").get());
+        assertEquals(2, this.requests.get());
+        checker.shutdown();
+    }
+
+    /**
+     * Test that an expired result is revalidated rather than fetched again.
+     */
+    @Test
+    public void testRevalidate() throws Exception
+    {
+        System.out.println("==revalidate==");
+        LinkChecker checker = new LinkChecker(2, new URLCache(null, 0L, URLCache.DEFAULT_SIZE));
+        assertEquals(LinkChecker.Outcome.FOUND, checker.contains(this.base + "/gone/2", "page not found").get());
+        assertEquals(LinkChecker.Outcome.FOUND, checker.contains(this.base + "/gone/2", "page not found").get());
+        assertEquals(2, this.requests.get());
+        assertEquals(1, this.notModified.get());
+        // A different phrase needs the page itself.
+        assertEquals(LinkChecker.Outcome.NOT_FOUND, checker.contains(this.base + "/gone/2", "welcome").get());
+        assertEquals(3, this.requests.get());
+        assertEquals(1, this.notModified.get());
+        checker.shutdown();
+    }
+
+    /**
+     * Test that results saved by one run are used by the next.
+     */
+    @Test
+    public void testCacheFile() throws Exception
+    {
+        System.out.println("==cacheFile==");
+        File file = File.createTempFile("urlcache", ".tsv");
+        file.deleteOnExit();
+        assertTrue(file.delete());
+        URLCache cache = new URLCache(file.getPath(), 60000L, URLCache.DEFAULT_SIZE);
+        cache.load();
+        LinkChecker checker = new LinkChecker(2, cache);
+        assertEquals(LinkChecker.Outcome.FOUND, checker.contains(this.base + "/gone/3", "page not found").get());
+        assertEquals(LinkChecker.Outcome.NOT_FOUND, checker.contains(this.base + "/ok", "page not found").get());
+        // Unreachable links aren't kept.
+        assertEquals(LinkChecker.Outcome.NOT_FOUND, checker.contains("http://127.0.0.1:1/", "page not found").get());
+        checker.shutdown();
+        cache.save();
+        assertEquals(2, this.requests.get());
+
+        URLCache next = new URLCache(file.getPath(), 60000L, URLCache.DEFAULT_SIZE);
+        next.load();
+        assertEquals(2, next.size());
+        URLCache.Entry entry = next.get(URLCache.normalize(this.base + "/gone/3"), "page not found");
+        assertEquals(200, entry.getStatus());
+        assertEquals(ETAG, entry.getETag());
+        checker = new LinkChecker(2, next);
+        assertEquals(LinkChecker.Outcome.FOUND, checker.contains(this.base + "/gone/3", "page not found").get());
+        assertEquals(LinkChecker.Outcome.NOT_FOUND, checker.contains(this.base + "/ok", "page not found").get());
+        assertEquals(2, this.requests.get());
+        checker.shutdown();
+    }
+
+    /**
+     * Test that the links of a host that keeps failing are skipped.
+     */
+    @Test
+    public void testFailingHost() throws Exception
+    {
+        System.out.println("==failingHost==");
+        LinkChecker checker = new LinkChecker(4, new URLCache(null, Long.MAX_VALUE, URLCache.DEFAULT_SIZE),
+                new URLProbe(URLProbe.Mode.BODY, 1000, URLProbe.DEFAULT_MAX_BYTES),
+                new HostScheduler(1, 0, 2, HostScheduler.DEFAULT_COOLDOWN));
+        List<Future<LinkChecker.Outcome>> checks = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            checks.add(checker.contains("http://127.0.0.1:1/" + i, "page not found"));
+        }
+        Future<LinkChecker.Outcome> other = checker.contains(this.base + "/gone/4", "page not found");
+        assertEquals(LinkChecker.Outcome.NOT_FOUND, checks.get(0).get());
+        assertEquals(LinkChecker.Outcome.NOT_FOUND, checks.get(1).get());
+        for (int i = 2; i < 5; i++)
+        {
+            assertEquals(LinkChecker.Outcome.SKIPPED, checks.get(i).get());
+        }
+        assertEquals(LinkChecker.Outcome.FOUND, other.get());
+        checker.shutdown();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 anisbet.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package utility;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author anisbet
+ */
+public class URLProbeTest
+{
+    private final static int PAGE_SIZE = 4 << 20;
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private String base;
+    private final AtomicInteger heads = new AtomicInteger();
+
+    /**
+     * Starts a local stand-in for a site. /big is a large page with "page not
+     * found" near the start, /late has it at the end, /gone answers 404,
+     * /nohead refuses HEAD requests and /slow doesn't answer for a while.
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", exchange ->
+        {
+            String path = exchange.getRequestURI().getPath();
+            boolean isHead = exchange.getRequestMethod().equals("HEAD");
+            if (isHead)
+            {
+                this.heads.incrementAndGet();
+            }
+            if (path.equals("/slow"))
+            {
+                try
+                {
+                    Thread.sleep(3000L);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (path.equals("/gone") || (isHead && path.equals("/nohead")))
+            {
+                exchange.sendResponseHeaders(path.equals("/gone") ? 404 : 405, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = new byte[PAGE_SIZE];
+            Arrays.fill(body, (byte)'x');
+            byte[] phrase = "page not found".getBytes(StandardCharsets.UTF_8);
+            int at = path.equals("/late") ? PAGE_SIZE - phrase.length : 100;
+            System.arraycopy(phrase, 0, body, at, phrase.length);
+            exchange.sendResponseHeaders(200, isHead ? -1 : body.length);
+            if (isHead)
+            {
+                exchange.close();
+                return;
+            }
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+            catch (IOException e)
+            {
+                // The client stopped reading.
+            }
+        });
+        this.serverThreads = Executors.newCachedThreadPool();
+        this.server.setExecutor(this.serverThreads);
+        this.server.start();
+        this.base = "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.server.stop(0);
+        this.serverThreads.shutdownNow();
+    }
+
+    /**
+     * Test that the matcher finds a phrase however the bytes are split.
+     */
+    @Test
+    public void testMatcher()
+    {
+        System.out.println("==matcher==");
+        byte[] text = "<html>Sorry, page not found.</html>".getBytes(StandardCharsets.UTF_8);
+        for (int block = 1; block <= text.length; block++)
+        {
+            PhraseMatcher matcher = new PhraseMatcher("page not found");
+            for (int i = 0; i < text.length; i += block)
+            {
+                matcher.update(text, i, Math.min(block, text.length - i));
+            }
+            assertTrue("block size " + block, matcher.isFound());
+        }
+        PhraseMatcher matcher = new PhraseMatcher("page not found");
+        assertFalse(matcher.update(text, 0, 20));
+        assertFalse(matcher.update("page not foun".getBytes(StandardCharsets.UTF_8), 0, 13));
+        assertTrue(new PhraseMatcher("").isFound());
+        matcher = new PhraseMatcher("caf\u00e9");
+        byte[] accented = "le caf\u00e9".getBytes(StandardCharsets.UTF_8);
+        assertTrue(matcher.update(accented, 0, accented.length));
+    }
+
+    /**
+     * Test that a page is only read as far as the phrase or the byte cap.
+     */
+    @Test
+    public void testEarlyStop()
+    {
+        System.out.println("==earlyStop==");
+        URLProbe probe = new URLProbe(URLProbe.Mode.BODY, 5000, 1 << 20);
+        URLProbe.Result result = probe.probe(this.base + "/big", "page not found", null, null);
+        assertTrue(result.isFound());
+        assertEquals(200, result.getStatus());
+        assertTrue(result.getBytesRead() < 65536);
+
+        result = probe.probe(this.base + "/late", "page not found", null, null);
+        assertFalse(result.isFound());
+        assertEquals(1 << 20, result.getBytesRead());
+
+        probe = new URLProbe(URLProbe.Mode.BODY, 5000, PAGE_SIZE);
+        assertTrue(probe.probe(this.base + "/late", "page not found", null, null).isFound());
+
+        result = probe.probe(this.base + "/gone", "page not found", null, null);
+        assertFalse(result.isFound());
+        assertEquals(404, result.getStatus());
+    }
+
+    /**
+     * Test that head and status modes report error statuses without reading pages.
+     */
+    @Test
+    public void testStatusModes()
+    {
+        System.out.println("==statusModes==");
+        for (URLProbe.Mode mode: new URLProbe.Mode[] {URLProbe.Mode.HEAD, URLProbe.Mode.STATUS})
+        {
+            URLProbe probe = new URLProbe(mode, 5000, 1 << 20);
+            URLProbe.Result result = probe.probe(this.base + "/big", "ignored", null, null);
+            assertFalse(result.isFound());
+            assertEquals(200, result.getStatus());
+            assertEquals(0L, result.getBytesRead());
+            result = probe.probe(this.base + "/gone", "ignored", null, null);
+            assertTrue(result.isFound());
+            assertEquals(404, result.getStatus());
+        }
+        assertEquals(2, this.heads.get());
+        // A server that refuses HEAD is asked with GET.
+        URLProbe probe = new URLProbe(URLProbe.Mode.HEAD, 5000, 1 << 20);
+        assertEquals(200, probe.probe(this.base + "/nohead", "ignored", null, null).getStatus());
+        assertEquals(URLProbe.Mode.STATUS, URLProbe.Mode.parse(" Status "));
+    }
+
+    /**
+     * Test that a host that doesn't answer costs no more than the timeout.
+     */
+    @Test
+    public void testTimeout()
+    {
+        System.out.println("==timeout==");
+        URLProbe probe = new URLProbe(URLProbe.Mode.BODY, 500, 1 << 20);
+        long start = System.nanoTime();
+        URLProbe.Result result = probe.probe(this.base + "/slow", "page not found", null, null);
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        assertEquals(URLProbe.UNREACHABLE, result.getStatus());
+        assertFalse(result.isFound());
+        assertTrue("took " + elapsed + "ms", elapsed < 2500L);
+    }
+}